@@ -0,0 +1,80 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import blue.origami.nez.parser.ParserChecker;
+import blue.origami.nez.parser.ParserCode;
+import blue.origami.nez.parser.ParserGrammar;
+import blue.origami.nez.parser.pasm.PAsmCompiler;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.Production;
+import blue.origami.util.OOption;
+
+/**
+ * Measures the two halves of Parser.compile(): ParserChecker with the
+ * ParserPass list, and PAsmCompiler on the checked grammar.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class CompileBenchmark {
+
+	@Param({ "json", "xml", "math", "java", "js", "konoha5" })
+	public String grammar;
+
+	private OOption options;
+	private Production start;
+	private ParserGrammar checked;
+
+	@Setup
+	public void setup() throws IOException {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/" + this.grammar + ".opeg");
+		this.options = new OOption();
+		this.start = g.getStartProduction();
+		this.checked = this.check();
+	}
+
+	@Benchmark
+	public ParserGrammar check() {
+		return new ParserChecker(this.options, this.start).checkParserGrammar();
+	}
+
+	@Benchmark
+	public ParserCode compile() {
+		PAsmCompiler compiler = new PAsmCompiler();
+		compiler.init(this.options);
+		return compiler.compile(this.checked);
+	}
+}
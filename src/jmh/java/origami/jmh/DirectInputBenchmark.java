@@ -0,0 +1,46 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.util.OOption;
+
+/**
+ * Runs ParseBenchmark with and without the direct-array path, which lets the
+ * VM index a StringSource with int positions. The gain per grammar is the
+ * ratio of the two scores.
+ *
+ * <pre>
+ * mvn -P jmh test-compile exec:exec -Djmh.include=DirectInputBenchmark
+ * </pre>
+ */
+
+public class DirectInputBenchmark extends ParseBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean direct;
+
+	@Override
+	protected OOption newOptions() {
+		OOption options = new OOption();
+		options.set(ParserOption.DirectInput, this.direct);
+		return options;
+	}
+}
@@ -0,0 +1,137 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import blue.origami.main.Oexample;
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.GrammarParser;
+import blue.origami.util.OOption;
+
+/**
+ * Parses the examples of each bundled grammar with the PAsm parser. One
+ * operation parses every example that the grammar accepts.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class ParseBenchmark {
+
+	/* py.opeg is left out; it does not load (syntax error at line 756) */
+	@Param({ "csv", "email", "epsilon", "iroha", "java", "js", "json", "kal", "konoha5", "math", "rb", "xml" })
+	public String grammar;
+
+	private Parser[] parsers;
+	private Source[] inputs;
+
+	/* xml.opeg has no examples */
+	private final static String XmlSample = "<?xml version=\"1.0\"?>\n<catalog>\n"
+			+ "  <book id=\"bk101\"><author>Gambardella</author><title>XML Guide</title><price>44.95</price></book>\n"
+			+ "  <book id=\"bk102\"><author>Ralls</author><title>Midnight Rain</title><price>5.95</price></book>\n"
+			+ "  <!-- comment --><empty/>\n</catalog>\n";
+
+	@Setup
+	public void setup() throws IOException {
+		String path = "/blue/origami/grammar/" + this.grammar + ".opeg";
+		Grammar g = Grammar.loadFile(path);
+		HashMap<String, Parser> parserMap = new HashMap<>();
+		ArrayList<Parser> parsers = new ArrayList<>();
+		ArrayList<Source> inputs = new ArrayList<>();
+		Tree<?> t = GrammarParser.OPegParser.parse(ParserSource.newFileSource(ParseBenchmark.class, path, null));
+		for (Tree<?> sub : t) {
+			if (sub.is(Oexample._Example)) {
+				String name = sub.get(GrammarParser._name).getString();
+				Parser p = parserMap.get(name);
+				if (p == null) {
+					OOption options = this.newOptions();
+					options.set(ParserOption.Start, name);
+					options.set(ParserOption.ThrowingParserError, true);
+					p = g.newParser(options);
+					parserMap.put(name, p);
+				}
+				Source s = sub.get(Oexample._text).toSource();
+				if (p != null && accepts(p, s)) {
+					parsers.add(p);
+					inputs.add(s);
+				}
+			}
+		}
+		if (inputs.isEmpty() && this.grammar.equals("xml")) {
+			OOption options = this.newOptions();
+			options.set(ParserOption.ThrowingParserError, true);
+			parsers.add(g.newParser(options));
+			inputs.add(ParserSource.newStringSource(XmlSample));
+		}
+		if (inputs.isEmpty()) {
+			throw new IOException("no parsable example in " + path);
+		}
+		this.parsers = parsers.toArray(new Parser[parsers.size()]);
+		this.inputs = inputs.toArray(new Source[inputs.size()]);
+	}
+
+	protected OOption newOptions() {
+		return new OOption();
+	}
+
+	private static boolean accepts(Parser p, Source s) {
+		try {
+			p.parse(s);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) throws IOException {
+		for (int i = 0; i < this.inputs.length; i++) {
+			bh.consume(this.parsers[i].parse(this.inputs[i]));
+		}
+	}
+
+	@Benchmark
+	public void match(Blackhole bh) {
+		for (int i = 0; i < this.inputs.length; i++) {
+			bh.consume(this.parsers[i].match(this.inputs[i]));
+		}
+	}
+}
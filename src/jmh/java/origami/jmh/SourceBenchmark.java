@@ -0,0 +1,111 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ChannelSource;
+import blue.origami.nez.parser.FileSource;
+import blue.origami.nez.parser.MmapSource;
+import blue.origami.nez.parser.ParserSession;
+import blue.origami.nez.parser.StringSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Streams the same CSV file through each Source implementation, one record
+ * at a time. The string case starts from bytes already in memory; the others
+ * open the file in every operation.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class SourceBenchmark {
+
+	@Param({ "string", "file", "mmap", "channel" })
+	public String source;
+
+	@Param({ "100000" })
+	public int records;
+
+	private File file;
+	private byte[] bytes;
+	private ParserSession session;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this.records; i++) {
+			sb.append(i + ",Ford,\"E350, ac\"," + (i * 7) + ".00\n");
+		}
+		byte[] b = sb.toString().getBytes("UTF8");
+		this.file = File.createTempFile("origami", ".csv");
+		Files.write(this.file.toPath(), b);
+		this.bytes = Arrays.copyOf(b, b.length + 1); // zero-terminated
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		this.session = g.newParser("Line", new OOption()).newSession();
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Benchmark
+	public long parseEach(Blackhole bh) throws IOException {
+		String path = this.file.getPath();
+		switch (this.source) {
+		case "string":
+			return this.parseEach(new StringSource(path, 1, this.bytes, true), bh);
+		case "file":
+			return this.parseEach(new FileSource(path), bh);
+		case "mmap":
+			return this.parseEach(new MmapSource(path), bh);
+		default:
+			try (ChannelSource s = new ChannelSource(path, FileChannel.open(this.file.toPath()))) {
+				return this.parseEach(s, bh);
+			}
+		}
+	}
+
+	private long parseEach(Source s, Blackhole bh) throws IOException {
+		return this.session.parseEach(s, t -> bh.consume(t));
+	}
+}
@@ -0,0 +1,80 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.transpiler.Transpiler;
+import blue.origami.util.OOption;
+
+/**
+ * Runs Transpiler.loadScriptFile end to end (parse, type check, JVM code
+ * generation and execution) on a fresh Transpiler for each operation.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class TranspilerBenchmark {
+
+	@Param({ "arith", "fib" })
+	public String script;
+
+	private Grammar grammar;
+	private Source source;
+
+	@Setup
+	public void setup() throws IOException {
+		this.grammar = Grammar.loadFile("/blue/origami/grammar/konoha5.opeg");
+		this.source = ParserSource.newStringSource(this.script + ".k", 1, this.text());
+		if (!this.loadScriptFile()) {
+			throw new IOException("failed " + this.script);
+		}
+	}
+
+	private String text() {
+		switch (this.script) {
+		case "arith":
+			return "1 + 2 * 3 - 4 / 2\n(1 + 2) * (3 + 4) % 5\n";
+		default:
+			return "def fib(n: Int): Int {\n\tif n < 3 then 1 else fib(n-1) + fib(n-2)\n}\nfib(20)\n";
+		}
+	}
+
+	@Benchmark
+	public boolean loadScriptFile() {
+		return new Transpiler(this.grammar, "jvm", new OOption()).loadScriptFile(this.source);
+	}
+}
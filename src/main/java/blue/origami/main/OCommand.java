@@ -27,6 +27,7 @@ import blue.origami.main.tool.OTreeWriter;
 import blue.origami.nez.ast.LocaleFormat;
 import blue.origami.nez.ast.Tree;
 import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserCache;
 import blue.origami.nez.parser.ParserOption;
 import blue.origami.nez.peg.Grammar;
 import blue.origami.nez.peg.SourceGrammar;
@@ -140,6 +141,11 @@ public abstract class OCommand extends OConsole {
 	}
 
 	protected Parser getParser(OOption options) throws IOException {
+		String cache = options.stringValue(ParserOption.Cache, null);
+		String file = options.stringValue(ParserOption.GrammarFile, null);
+		if (cache != null && file != null) {
+			return new ParserCache(cache, options).newParser(file, options.stringList(ParserOption.GrammarPath));
+		}
 		Grammar g = this.getGrammar(options);
 		return g.newParser(options);
 	}
@@ -160,7 +166,9 @@ public abstract class OCommand extends OConsole {
 		p("Example:");
 		p("  origami run sample.iroha");
 		p("  origami example -g js.opeg");
-		p("  origami parse -g js.nez -X JsonWriter jquery.js");
+		p("  origami parse -g js.nez -XJsonWriter jquery.js");
+		p("  origami time -g js.opeg -DCache=/tmp/origami jquery.js");
+		p("  origami time -g js.opeg -DProfile=js.folded jquery.js");
 		p("");
 
 		p(bold("The most commonly used origami commands are:"));
@@ -54,6 +54,8 @@ public class Omatch extends OCommand {
 				failedFileList.add(file);
 			}
 		}
+		parser.saveMemoProfile();
+		parser.reportProfile();
 		if (failedFileList.size() > 0) {
 			p("failed: %s", failedFileList);
 			System.exit(1);
@@ -61,6 +61,8 @@ public class Oparse extends OCommand {
 				}
 			}
 			treeWriter.close();
+			parser.saveMemoProfile();
+			parser.reportProfile();
 		} else {
 			this.exec2(options);
 		}
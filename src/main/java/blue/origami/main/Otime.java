@@ -19,8 +19,10 @@ package blue.origami.main;
 import blue.origami.nez.ast.Source;
 import blue.origami.nez.ast.Tree;
 import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserCode;
 import blue.origami.nez.parser.ParserOption;
 import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.PAsmCode;
 import blue.origami.util.OOption;
 
 public class Otime extends OCommand {
@@ -37,7 +39,11 @@ public class Otime extends OCommand {
 			exit(1, "unavailable -t --text option");
 			return;
 		}
+		long t0 = System.nanoTime();
 		Parser parser = this.getParser(options);
+		ParserCode code = parser.getExecutable();
+		p(Blue, "Compiler %s %.3f[ms]%s", code.getClass().getSimpleName(), (System.nanoTime() - t0) / 1000000.0,
+				parser.isPrecompiled() ? " (cached)" : "");
 		double total = 0.0;
 		int len = 0;
 		String[] files = options.stringList(ParserOption.InputFiles);
@@ -79,5 +85,10 @@ public class Otime extends OCommand {
 		}
 		double s = (total / 1000);
 		p(Blue, "Throughput %.2f [B/s] %.2f [KiB/s] %.2f[MiB/s]", (len / s), (len / 1024 / s), (len / 1024 / 1024 / s));
+		if (code instanceof PAsmCode) {
+			p(Blue, "Memo %s", ((PAsmCode) code).getMemoStat());
+		}
+		parser.saveMemoProfile();
+		parser.reportProfile();
 	}
 }
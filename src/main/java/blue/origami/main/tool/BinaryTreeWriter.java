@@ -0,0 +1,226 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.main.tool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import blue.origami.nez.ast.CommonTree;
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.ast.Tree;
+import blue.origami.util.OConsole;
+import blue.origami.util.OOption;
+
+/**
+ * BinaryTreeWriter streams trees in a compact binary AST format.
+ *
+ * <pre>
+ * file   = "OAST" version tree*
+ * tree   = symbol(tag) varint(pos) varint(len) varint(size)
+ *          (varint(n) byte[n] | (symbol(label) tree)*)    // leaf | node
+ * symbol = 0 (null) | k+1 (k-th defined symbol, defined in place on first use
+ *          as varint(n) utf8[n])
+ * </pre>
+ *
+ * Trees are read back with {@link BinaryTreeWriter.Reader}.
+ */
+
+public class BinaryTreeWriter extends OTreeWriter {
+	public final static byte[] Magic = { 'O', 'A', 'S', 'T' };
+	public final static int Version = 1;
+
+	private final HashMap<Symbol, Integer> symbolMap = new HashMap<>();
+	private OutputStream out = null;
+
+	@Override
+	public OTreeWriter clone() {
+		return new BinaryTreeWriter();
+	}
+
+	@Override
+	public void open(String path) throws IOException {
+		super.open(path);
+		this.out = null;
+		this.symbolMap.clear();
+	}
+
+	@Override
+	public void init(OOption options) {
+
+	}
+
+	@Override
+	public void write(Tree<?> t) {
+		try {
+			if (this.out == null) {
+				this.out = this.getOutputStream();
+				this.out.write(Magic);
+				this.out.write(Version);
+			}
+			this.writeTree(t);
+		} catch (IOException e) {
+			OConsole.exit(1, e);
+		}
+		this.flush();
+	}
+
+	@Override
+	public void writeln(Tree<?> t) {
+		this.write(t);
+	}
+
+	private void writeTree(Tree<?> t) throws IOException {
+		this.writeSymbol(t.getTag());
+		this.writeVarint(t.getSourcePosition());
+		this.writeVarint(t.getLength());
+		this.writeVarint(t.size());
+		if (t.size() == 0) {
+			byte[] text = t.getSource() != null ? t.getBytes() : t.getString().getBytes(StandardCharsets.UTF_8);
+			this.writeVarint(text.length);
+			this.out.write(text);
+			return;
+		}
+		for (int i = 0; i < t.size(); i++) {
+			this.writeSymbol(t.getLabel(i));
+			this.writeTree(t.get(i));
+		}
+	}
+
+	private void writeSymbol(Symbol s) throws IOException {
+		if (s == null) {
+			this.writeVarint(0);
+			return;
+		}
+		Integer id = this.symbolMap.get(s);
+		if (id != null) {
+			this.writeVarint(id + 1);
+			return;
+		}
+		id = this.symbolMap.size();
+		this.symbolMap.put(s, id);
+		this.writeVarint(id + 1);
+		byte[] name = s.getSymbol().getBytes(StandardCharsets.UTF_8);
+		this.writeVarint(name.length);
+		this.out.write(name);
+	}
+
+	private void writeVarint(long n) throws IOException {
+		while ((n & ~0x7fL) != 0) {
+			this.out.write((int) ((n & 0x7f) | 0x80));
+			n >>>= 7;
+		}
+		this.out.write((int) n);
+	}
+
+	/**
+	 * Reader rebuilds the trees written by BinaryTreeWriter. Leaf text is kept
+	 * as a String value since the original source is not available.
+	 */
+
+	public static class Reader {
+		private final InputStream in;
+		private final ArrayList<Symbol> symbols = new ArrayList<>();
+
+		public Reader(InputStream in) throws IOException {
+			this.in = in;
+			for (byte b : Magic) {
+				if (in.read() != b) {
+					throw new IOException("not a binary tree stream");
+				}
+			}
+			int v = in.read();
+			if (v != Version) {
+				throw new IOException("unsupported version " + v);
+			}
+		}
+
+		/* returns null at the end of stream */
+		public Tree<?> read() throws IOException {
+			int ch = this.in.read();
+			if (ch == -1) {
+				return null;
+			}
+			return this.readTree(this.readSymbol(this.readVarint(ch)));
+		}
+
+		private CommonTree readTree(Symbol tag) throws IOException {
+			long pos = this.readVarint(this.in.read());
+			int len = (int) this.readVarint(this.in.read());
+			int size = (int) this.readVarint(this.in.read());
+			if (size == 0) {
+				byte[] text = this.readBytes((int) this.readVarint(this.in.read()));
+				return new CommonTree(tag, null, pos, len, 0, new String(text, StandardCharsets.UTF_8));
+			}
+			CommonTree t = new CommonTree(tag, null, pos, len, size, null);
+			for (int i = 0; i < size; i++) {
+				Symbol label = this.readSymbol(this.readVarint(this.in.read()));
+				Symbol ctag = this.readSymbol(this.readVarint(this.in.read()));
+				t.set(i, label, this.readTree(ctag));
+			}
+			return t;
+		}
+
+		private Symbol readSymbol(long ref) throws IOException {
+			if (ref == 0) {
+				return null;
+			}
+			int id = (int) ref - 1;
+			if (id < this.symbols.size()) {
+				return this.symbols.get(id);
+			}
+			byte[] name = this.readBytes((int) this.readVarint(this.in.read()));
+			Symbol s = Symbol.unique(new String(name, StandardCharsets.UTF_8));
+			this.symbols.add(s);
+			return s;
+		}
+
+		private long readVarint(int ch) throws IOException {
+			long n = 0;
+			int shift = 0;
+			while (true) {
+				if (ch == -1) {
+					throw new EOFException();
+				}
+				n |= (long) (ch & 0x7f) << shift;
+				if ((ch & 0x80) == 0) {
+					return n;
+				}
+				shift += 7;
+				ch = this.in.read();
+			}
+		}
+
+		private byte[] readBytes(int n) throws IOException {
+			byte[] b = new byte[n];
+			int off = 0;
+			while (off < n) {
+				int r = this.in.read(b, off, n - off);
+				if (r == -1) {
+					throw new EOFException();
+				}
+				off += r;
+			}
+			return b;
+		}
+	}
+
+}
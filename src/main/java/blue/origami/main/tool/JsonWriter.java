@@ -0,0 +1,129 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.main.tool;
+
+import java.nio.charset.StandardCharsets;
+
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.ast.Tree;
+import blue.origami.util.OOption;
+
+/**
+ * JsonWriter streams a tree as JSON while walking it; only the text of the
+ * current node is materialized. A node is written as
+ * {"tag":..,"label":..,"pos":..,"len":..} with either "text" (a leaf) or
+ * "children".
+ *
+ * <pre>
+ * origami parse -g xml.opeg -XJsonWriter a.xml
+ * </pre>
+ */
+
+public class JsonWriter extends OTreeWriter {
+	protected boolean indent = true;
+	private final StringBuilder sb = new StringBuilder();
+
+	@Override
+	public OTreeWriter clone() {
+		return new JsonWriter();
+	}
+
+	@Override
+	public void init(OOption options) {
+
+	}
+
+	@Override
+	public void write(Tree<?> t) {
+		this.writeNode(null, t);
+		this.println();
+	}
+
+	private void writeNode(Symbol label, Tree<?> t) {
+		StringBuilder sb = this.sb;
+		sb.setLength(0);
+		sb.append("{\"tag\":");
+		quote(sb, t.getTag() == null ? "" : t.getTag().getSymbol());
+		if (label != null) {
+			sb.append(",\"label\":");
+			quote(sb, label.getSymbol());
+		}
+		sb.append(",\"pos\":").append(t.getSourcePosition());
+		sb.append(",\"len\":").append(t.getLength());
+		if (t.size() == 0) {
+			sb.append(",\"text\":");
+			quote(sb, text(t));
+			sb.append("}");
+			this.print(sb.toString());
+			return;
+		}
+		sb.append(",\"children\":[");
+		this.print(sb.toString());
+		this.incIndent();
+		for (int i = 0; i < t.size(); i++) {
+			if (i > 0) {
+				this.print(",");
+			}
+			if (this.indent) {
+				this.L("");
+			}
+			this.writeNode(t.getLabel(i), t.get(i));
+		}
+		this.decIndent();
+		this.print("]}");
+	}
+
+	/* getBytes() does not cache the text in the tree */
+	private static String text(Tree<?> t) {
+		if (t.getSource() != null) {
+			return new String(t.getBytes(), StandardCharsets.UTF_8);
+		}
+		return t.getString();
+	}
+
+	static void quote(StringBuilder sb, String text) {
+		sb.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char ch = text.charAt(i);
+			switch (ch) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					sb.append(String.format("\\u%04x", (int) ch));
+				} else {
+					sb.append(ch);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+}
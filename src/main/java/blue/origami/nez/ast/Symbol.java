@@ -16,19 +16,41 @@
 
 package blue.origami.nez.ast;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
-public class Symbol {
-	private static HashMap<String, Symbol> tagIdMap = new HashMap<>();
-	private static ArrayList<Symbol> tagNameList = new ArrayList<>(64);
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Symbols are interned with dense ids. Lookups by name and by id do not
+ * lock; only the creation of a new symbol is serialized, and it publishes
+ * the symbol in the id table before the name table.
+ */
+
+@SuppressWarnings("serial")
+public class Symbol implements Serializable {
+	private static final ConcurrentHashMap<String, Symbol> tagIdMap = new ConcurrentHashMap<>();
+	private static volatile Symbol[] tagNameList = new Symbol[64];
+	private static int tagSize = 0; // guarded by Symbol.class
 
 	public final static Symbol unique(String s) {
 		Symbol tag = tagIdMap.get(s);
 		if (tag == null) {
-			tag = new Symbol(tagIdMap.size(), s);
+			tag = newSymbol(s);
+		}
+		return tag;
+	}
+
+	private static synchronized Symbol newSymbol(String s) {
+		Symbol tag = tagIdMap.get(s);
+		if (tag == null) {
+			Symbol[] list = tagNameList;
+			if (tagSize == list.length) {
+				list = Arrays.copyOf(list, list.length * 2);
+			}
+			tag = new Symbol(tagSize, s);
+			list[tagSize++] = tag;
+			tagNameList = list; // publishes the new entry
 			tagIdMap.put(s, tag);
-			tagNameList.add(tag);
 		}
 		return tag;
 	}
@@ -42,7 +64,11 @@ public class Symbol {
 	}
 
 	public final static Symbol tag(int tagId) {
-		return tagNameList.get(tagId);
+		return tagNameList[tagId];
+	}
+
+	public final static synchronized int size() {
+		return tagSize;
 	}
 
 	public final static Symbol Null = unique("");
@@ -79,4 +105,9 @@ public class Symbol {
 		return this.symbol;
 	}
 
+	/* a deserialized symbol is interned again by name */
+	private Object readResolve() {
+		return unique(this.symbol);
+	}
+
 }
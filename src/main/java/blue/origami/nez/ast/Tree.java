@@ -19,6 +19,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	protected Symbol[] subTreeLabels;
 	protected E[] subTree;
 	protected Object value;
+	private String text = null; // cached by getString()
 
 	protected Tree() {
 		this.tag = Symbol.Null;
@@ -99,7 +100,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 		return this.subTree[index];
 	}
 
-	public final Symbol getLabel(int index) {
+	public Symbol getLabel(int index) {
 		return this.subTreeLabels[index];
 	}
 
@@ -117,8 +118,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	}
 
 	public final int indexOf(Symbol label) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
 				return i;
 			}
 		}
@@ -126,8 +127,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	}
 
 	public final boolean has(Symbol label) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
 				return true;
 			}
 		}
@@ -135,9 +136,9 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	}
 
 	public final E get(Symbol label) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
-				return this.subTree[i];
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
+				return this.get(i);
 			}
 		}
 		throw this.newNoSuchLabel(label);
@@ -148,18 +149,18 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	}
 
 	public final E get(Symbol label, E defval) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
-				return this.subTree[i];
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
+				return this.get(i);
 			}
 		}
 		return defval;
 	}
 
 	public final int size(Symbol label, int size) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
-				return this.subTree[i].size();
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
+				return this.get(i).size();
 			}
 		}
 		return size;
@@ -173,6 +174,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 
 	public final void setValue(Object value) {
 		this.value = value;
+		this.text = null;
 	}
 
 	public final byte[] getBytes() {
@@ -184,31 +186,52 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 		return new byte[0];
 	}
 
+	/**
+	 * Returns the token text. The text is decoded once and cached, except for
+	 * bytes that are not valid UTF-8, which are formatted on every call.
+	 */
+
 	public final String getString() {
-		Source s = this.getSource();
-		if (s != null) {
-			long pos = this.getSourcePosition();
-			long epos = pos + this.length;
-			byte[] chunks = s.subBytes(pos, epos);
-			if (OStringUtils.isValidUTF8(chunks)) {
-				return OStringUtils.newString(chunks);
-			}
+		String text = this.decodeText();
+		if (text == null) {
 			StringBuilder sb = new StringBuilder();
-			OStringUtils.formatBytes(sb, chunks);
+			this.formatBytes(sb);
 			return sb.toString();
 		}
-		if (this.value instanceof String) {
-			return (String) this.value;
+		return text;
+	}
+
+	/* returns the cached text, or null if the bytes are not valid UTF-8 */
+	private String decodeText() {
+		String text = this.text;
+		if (text == null) {
+			Source s = this.getSource();
+			if (s != null) {
+				long pos = this.getSourcePosition();
+				byte[] chunks = s.subBytes(pos, pos + this.length);
+				if (!OStringUtils.isValidUTF8(chunks)) {
+					return null;
+				}
+				text = OStringUtils.newString(chunks);
+			} else {
+				text = this.value instanceof String ? (String) this.value : "";
+			}
+			this.text = text;
 		}
-		return "";
+		return text;
+	}
+
+	private void formatBytes(StringBuilder sb) {
+		long pos = this.getSourcePosition();
+		OStringUtils.formatBytes(sb, this.getSource().subBytes(pos, pos + this.length));
 	}
 
 	// subtree method
 
 	public final boolean isAt(Symbol label, Symbol tag) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
-				return this.subTree[i].is(tag);
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
+				return this.get(i).is(tag);
 			}
 		}
 		return false;
@@ -222,8 +245,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 	}
 
 	public final String getStringAt(Symbol label, String defval) {
-		for (int i = 0; i < this.subTreeLabels.length; i++) {
-			if (this.subTreeLabels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (this.getLabel(i) == label) {
 				return this.getStringAt(i, defval);
 			}
 		}
@@ -252,23 +275,23 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E>
 		if (this.getTag() != null) {
 			sb.append(this.getTag().getSymbol());
 		}
-		if (this.subTree == null) {
+		if (this.size() == 0) {
 			sb.append(" ");
-			byte[] chunks = this.getBytes();
-			if (OStringUtils.isValidUTF8(chunks)) {
-				OStringUtils.formatStringLiteral(sb, '\'', this.getString(), '\'');
+			String text = this.decodeText();
+			if (text != null) {
+				OStringUtils.formatStringLiteral(sb, '\'', text, '\'');
 			} else {
-				OStringUtils.formatBytes(sb, chunks);
+				this.formatBytes(sb);
 			}
 		} else {
 			for (int i = 0; i < this.size(); i++) {
 				sb.append(" ");
-				if (this.subTreeLabels[i] != null) {
+				if (this.getLabel(i) != null) {
 					sb.append("$");
-					sb.append(this.subTreeLabels[i].getSymbol());
+					sb.append(this.getLabel(i).getSymbol());
 					sb.append("=");
 				}
-				StringCombinator.append(sb, this.subTree[i]);
+				StringCombinator.append(sb, this.get(i));
 			}
 		}
 		sb.append("]");
@@ -0,0 +1,230 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.ast;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeSetFunc;
+
+/**
+ * TreeArena builds parse trees into flat int[] columns (tag, position,
+ * length, first child, child count, and child/label slots) instead of one
+ * object per node. The parser sees node ids; node(id) returns a Node, a
+ * flyweight view that supports the read side of Tree.
+ *
+ * <pre>
+ * TreeArena arena = new TreeArena();
+ * Tree&lt;?&gt; t = arena.parse(parser, source);
+ * </pre>
+ *
+ * Nodes discarded by backtracking stay in the arena until clear(). All
+ * nodes of an arena refer to one source.
+ *
+ * The arena reduces the retained heap, not the allocation rate. Node ids
+ * pass through TreeFunc as Integer, so each node above the Integer cache
+ * (127) still allocates a 16-byte box, and growing the columns copies them.
+ * Reuse an arena with clear() to avoid the copies; TreeMemoryBenchmark
+ * reports both figures.
+ */
+
+public class TreeArena implements TreeFunc, TreeSetFunc {
+	private final static int NoSymbol = -1;
+	private final static int NoNode = -1;
+
+	private Source source = null;
+	private int size = 0;
+	private int[] tags;
+	private int[] positions;
+	private int[] lengths;
+	private int[] firstChildren;
+	private int[] childCounts;
+	private int childSize = 0;
+	private int[] children;
+	private int[] labels;
+	private Object[] values = null; // allocated by the first node with a value
+
+	public TreeArena() {
+		this(1024);
+	}
+
+	public TreeArena(int capacity) {
+		this.tags = new int[capacity];
+		this.positions = new int[capacity];
+		this.lengths = new int[capacity];
+		this.firstChildren = new int[capacity];
+		this.childCounts = new int[capacity];
+		this.children = new int[capacity];
+		this.labels = new int[capacity];
+	}
+
+	public Node parse(Parser parser, Source s) throws IOException {
+		this.clear();
+		Object id = parser.parse(s, 0, this, this);
+		return id == null ? null : this.node((Integer) id);
+	}
+
+	/**
+	 * Drops all nodes and keeps the columns for reuse.
+	 */
+
+	public void clear() {
+		this.source = null;
+		this.size = 0;
+		this.childSize = 0;
+		if (this.values != null) {
+			Arrays.fill(this.values, null);
+		}
+	}
+
+	public final int size() {
+		return this.size;
+	}
+
+	public final Node node(int id) {
+		return id == NoNode ? null : new Node(this, id);
+	}
+
+	@Override
+	public Object apply(Symbol tag, Source s, int spos, int epos, int nsubs, Object value) {
+		if (this.source != s) {
+			if (this.source != null) {
+				throw new IllegalStateException("a tree arena holds the trees of one source");
+			}
+			this.source = s;
+		}
+		if (this.size == this.tags.length) {
+			this.growNodes();
+		}
+		while (this.childSize + nsubs > this.children.length) {
+			this.growChildren();
+		}
+		int id = this.size++;
+		this.tags[id] = tag == null ? NoSymbol : tag.id();
+		this.positions[id] = spos;
+		this.lengths[id] = epos - spos;
+		this.firstChildren[id] = this.childSize;
+		this.childCounts[id] = nsubs;
+		Arrays.fill(this.children, this.childSize, this.childSize + nsubs, NoNode);
+		Arrays.fill(this.labels, this.childSize, this.childSize + nsubs, NoSymbol);
+		this.childSize += nsubs;
+		if (value != null) {
+			if (this.values == null) {
+				this.values = new Object[this.tags.length];
+			}
+			this.values[id] = value;
+		} else if (this.values != null) {
+			this.values[id] = null;
+		}
+		return id;
+	}
+
+	@Override
+	public Object apply(Object parent, int index, Symbol label, Object child) {
+		int slot = this.firstChildren[(Integer) parent] + index;
+		this.children[slot] = child == null ? NoNode : (Integer) child;
+		this.labels[slot] = label == null ? NoSymbol : label.id();
+		return parent;
+	}
+
+	private void growNodes() {
+		int capacity = this.tags.length * 2;
+		this.tags = Arrays.copyOf(this.tags, capacity);
+		this.positions = Arrays.copyOf(this.positions, capacity);
+		this.lengths = Arrays.copyOf(this.lengths, capacity);
+		this.firstChildren = Arrays.copyOf(this.firstChildren, capacity);
+		this.childCounts = Arrays.copyOf(this.childCounts, capacity);
+		if (this.values != null) {
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+	}
+
+	private void growChildren() {
+		int capacity = this.children.length * 2;
+		this.children = Arrays.copyOf(this.children, capacity);
+		this.labels = Arrays.copyOf(this.labels, capacity);
+	}
+
+	/**
+	 * Returns the bytes held by the columns (array headers excluded).
+	 */
+
+	public long memoryUsage() {
+		long bytes = 4L * (5 * this.tags.length + 2 * this.children.length);
+		if (this.values != null) {
+			bytes += 8L * this.values.length;
+		}
+		return bytes;
+	}
+
+	private static Symbol symbol(int id) {
+		return id == NoSymbol ? null : Symbol.tag(id);
+	}
+
+	/**
+	 * Node is a read-only view of one node in an arena.
+	 */
+
+	public static final class Node extends Tree<Node> {
+		private final TreeArena arena;
+		private final int id;
+
+		Node(TreeArena arena, int id) {
+			super(symbol(arena.tags[id]), arena.source, arena.positions[id], arena.lengths[id], null,
+					arena.values == null ? null : arena.values[id]);
+			this.arena = arena;
+			this.id = id;
+		}
+
+		public final int id() {
+			return this.id;
+		}
+
+		@Override
+		public int size() {
+			return this.arena.childCounts[this.id];
+		}
+
+		@Override
+		public Node get(int index) {
+			return this.arena.node(this.arena.children[this.arena.firstChildren[this.id] + index]);
+		}
+
+		@Override
+		public Symbol getLabel(int index) {
+			return symbol(this.arena.labels[this.arena.firstChildren[this.id] + index]);
+		}
+
+		@Override
+		protected Node dupImpl() {
+			return new Node(this.arena, this.id);
+		}
+
+		@Override
+		public Object apply(Symbol tag, Source s, int spos, int epos, int nsubs, Object value) {
+			return this.arena.apply(tag, s, spos, epos, nsubs, value);
+		}
+
+		@Override
+		public Object apply(Object tree, int index, Symbol label, Object child) {
+			return this.arena.apply(tree, index, label, child);
+		}
+	}
+
+}
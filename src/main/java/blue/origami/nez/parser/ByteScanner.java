@@ -0,0 +1,343 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser;
+
+import java.nio.ByteBuffer;
+
+import blue.origami.nez.ast.Source;
+
+/**
+ * ByteScanner skips the longest run of bytes in a byte class (or of a repeated
+ * byte sequence), the work of the repetition instructions Rbyte, Rset, Rbin
+ * and Rstr. A Source that implements Scannable hands its backing buffer to
+ * the kernel, which then reads 8 bytes at a time (SWAR) instead of calling
+ * byteAt per byte:
+ *
+ * <pre>
+ * ByteScanner.of(bits).scan(source, pos)
+ * </pre>
+ */
+
+public abstract class ByteScanner {
+
+	/**
+	 * A Source whose bytes can be scanned in place.
+	 */
+
+	public interface Scannable {
+		/* returns the end position of the run that starts at pos */
+		public long scan(long pos, ByteScanner scanner);
+	}
+
+	/**
+	 * Returns the end of the run in b[pos, end); b must be little-endian.
+	 */
+
+	public abstract int scan(ByteBuffer b, int pos, int end);
+
+	/**
+	 * Returns the end of the run by reading the source byte by byte.
+	 */
+
+	public abstract long scan(Source s, long pos);
+
+	/* the number of bytes of one repetition */
+	public int width() {
+		return 1;
+	}
+
+	public final long scanSource(Source s, long pos) {
+		if (s instanceof Scannable) {
+			return ((Scannable) s).scan(pos, this);
+		}
+		return this.scan(s, pos);
+	}
+
+	/* factories */
+
+	private final static ByteScanner[] singles = new ByteScanner[256];
+
+	public static ByteScanner of(int byteChar) {
+		ByteScanner s = singles[byteChar];
+		if (s == null) {
+			s = new Single(byteChar);
+			singles[byteChar] = s;
+		}
+		return s;
+	}
+
+	public static ByteScanner of(int[] bits) {
+		int count = 0;
+		for (int c = 0; c < 256; c++) {
+			if (is(bits, c)) {
+				count++;
+			}
+		}
+		if (count == 1) {
+			return of(select(bits, true)[0]);
+		}
+		if (count <= 4) {
+			return new Few(select(bits, true));
+		}
+		if (256 - count <= 4) {
+			return new Except(select(bits, false));
+		}
+		return new Table(bits);
+	}
+
+	public static ByteScanner of(byte[] utf8) {
+		if (utf8.length == 1) {
+			return of(utf8[0] & 0xff);
+		}
+		return new Str(utf8);
+	}
+
+	private static boolean is(int[] bits, int c) {
+		return (bits[c / 32] & (1 << (c % 32))) != 0;
+	}
+
+	private static int[] select(int[] bits, boolean in) {
+		int n = 0;
+		int[] selected = new int[256];
+		for (int c = 0; c < 256; c++) {
+			if (is(bits, c) == in) {
+				selected[n++] = c;
+			}
+		}
+		int[] s = new int[n];
+		System.arraycopy(selected, 0, s, 0, n);
+		return s;
+	}
+
+	/* SWAR helpers */
+
+	private final static long Low7 = 0x7f7f7f7f7f7f7f7fL;
+	private final static long High = 0x8080808080808080L;
+
+	static long broadcast(int c) {
+		return (c & 0xffL) * 0x0101010101010101L;
+	}
+
+	/* 0x80 in exactly the bytes of x that are zero */
+	static long zeros(long x) {
+		long y = (x & Low7) + Low7;
+		return ~(y | x | Low7);
+	}
+
+	/* the byte index of the lowest set bit in a (non-zero) mask */
+	static int first(long mask) {
+		return Long.numberOfTrailingZeros(mask) >>> 3;
+	}
+
+	/* a single byte: c* */
+	static final class Single extends ByteScanner {
+		final int byteChar;
+		final long pattern;
+
+		Single(int byteChar) {
+			this.byteChar = byteChar;
+			this.pattern = broadcast(byteChar);
+		}
+
+		@Override
+		public int scan(ByteBuffer b, int pos, int end) {
+			for (; pos + 8 <= end; pos += 8) {
+				long x = b.getLong(pos) ^ this.pattern;
+				if (x != 0) {
+					return pos + first(x);
+				}
+			}
+			while (pos < end && (b.get(pos) & 0xff) == this.byteChar) {
+				pos++;
+			}
+			return pos;
+		}
+
+		@Override
+		public long scan(Source s, long pos) {
+			while (s.byteAt(pos) == this.byteChar && (this.byteChar != 0 || !s.eof(pos))) {
+				pos++;
+			}
+			return pos;
+		}
+	}
+
+	/* a few accepted bytes, e.g. [ \t\r\n]* */
+	static final class Few extends ByteScanner {
+		final int[] bytes;
+		final long[] patterns;
+
+		Few(int[] bytes) {
+			this.bytes = bytes;
+			this.patterns = new long[bytes.length];
+			for (int i = 0; i < bytes.length; i++) {
+				this.patterns[i] = broadcast(bytes[i]);
+			}
+		}
+
+		private boolean accepts(int c) {
+			for (int b : this.bytes) {
+				if (b == c) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int scan(ByteBuffer b, int pos, int end) {
+			for (; pos + 8 <= end; pos += 8) {
+				long x = b.getLong(pos);
+				long matched = 0;
+				for (long p : this.patterns) {
+					matched |= zeros(x ^ p);
+				}
+				long rest = ~matched & High;
+				if (rest != 0) {
+					return pos + first(rest);
+				}
+			}
+			while (pos < end && this.accepts(b.get(pos) & 0xff)) {
+				pos++;
+			}
+			return pos;
+		}
+
+		@Override
+		public long scan(Source s, long pos) {
+			int c;
+			while (this.accepts(c = s.byteAt(pos)) && (c != 0 || !s.eof(pos))) {
+				pos++;
+			}
+			return pos;
+		}
+	}
+
+	/* all but a few bytes, e.g. string bodies [^"\\]* */
+	static final class Except extends ByteScanner {
+		final int[] bytes;
+		final long[] patterns;
+
+		Except(int[] bytes) {
+			this.bytes = bytes;
+			this.patterns = new long[bytes.length];
+			for (int i = 0; i < bytes.length; i++) {
+				this.patterns[i] = broadcast(bytes[i]);
+			}
+		}
+
+		private boolean accepts(int c) {
+			for (int b : this.bytes) {
+				if (b == c) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int scan(ByteBuffer b, int pos, int end) {
+			for (; pos + 8 <= end; pos += 8) {
+				long x = b.getLong(pos);
+				long stop = 0;
+				for (long p : this.patterns) {
+					stop |= zeros(x ^ p);
+				}
+				if (stop != 0) {
+					return pos + first(stop);
+				}
+			}
+			while (pos < end && this.accepts(b.get(pos) & 0xff)) {
+				pos++;
+			}
+			return pos;
+		}
+
+		@Override
+		public long scan(Source s, long pos) {
+			int c;
+			while (this.accepts(c = s.byteAt(pos)) && (c != 0 || !s.eof(pos))) {
+				pos++;
+			}
+			return pos;
+		}
+	}
+
+	/* any other class, by table lookup */
+	static final class Table extends ByteScanner {
+		final boolean[] table = new boolean[256];
+
+		Table(int[] bits) {
+			for (int c = 0; c < 256; c++) {
+				this.table[c] = is(bits, c);
+			}
+		}
+
+		@Override
+		public int scan(ByteBuffer b, int pos, int end) {
+			while (pos < end && this.table[b.get(pos) & 0xff]) {
+				pos++;
+			}
+			return pos;
+		}
+
+		@Override
+		public long scan(Source s, long pos) {
+			int c;
+			while (this.table[c = s.byteAt(pos)] && (c != 0 || !s.eof(pos))) {
+				pos++;
+			}
+			return pos;
+		}
+	}
+
+	/* a repeated byte sequence, e.g. ('ab')* */
+	static final class Str extends ByteScanner {
+		final byte[] utf8;
+
+		Str(byte[] utf8) {
+			this.utf8 = utf8;
+		}
+
+		@Override
+		public int width() {
+			return this.utf8.length;
+		}
+
+		@Override
+		public int scan(ByteBuffer b, int pos, int end) {
+			int len = this.utf8.length;
+			loop: for (; pos + len <= end; pos += len) {
+				for (int i = 0; i < len; i++) {
+					if (b.get(pos + i) != this.utf8[i]) {
+						break loop;
+					}
+				}
+			}
+			return pos;
+		}
+
+		@Override
+		public long scan(Source s, long pos) {
+			while (s.match(pos, this.utf8)) {
+				pos += this.utf8.length;
+			}
+			return pos;
+		}
+	}
+}
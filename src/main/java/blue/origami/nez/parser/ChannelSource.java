@@ -0,0 +1,238 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+
+/**
+ * ChannelSource reads a ReadableByteChannel on demand into a ring buffer.
+ * Bytes before the released position are dropped; they are released
+ * explicitly by release(pos), or, when the buffer is full, up to the
+ * position reported by the watermark that the parser installs (the lowest
+ * live backtrack position or memo window). Reading a released byte throws
+ * ReleasedInputException. Since the input length is unknown until the
+ * channel is exhausted, length() reads the channel to the end.
+ */
+
+public class ChannelSource extends ParserSource implements Closeable {
+	public final static int DefaultCapacity = 1 << 16;
+
+	private final ReadableByteChannel channel;
+	private byte[] buffer;
+	private int mask;
+	private long released = 0; // the first byte retained in the buffer
+	private long filled = 0; // the end of the bytes read so far
+	private boolean eof = false;
+	private long releasedLines = 0; // newlines before the released position
+	private LongSupplier watermark = null;
+
+	public ChannelSource(String resourceName, ReadableByteChannel channel) {
+		this(resourceName, channel, DefaultCapacity);
+	}
+
+	public ChannelSource(String resourceName, ReadableByteChannel channel, int initialCapacity) {
+		super(resourceName, 1);
+		this.channel = channel;
+		int capacity = Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1;
+		this.buffer = new byte[capacity];
+		this.mask = capacity - 1;
+	}
+
+	public final int capacity() {
+		return this.buffer.length;
+	}
+
+	public final long releasedPosition() {
+		return this.released;
+	}
+
+	/**
+	 * Sets the position below which the reader no longer backtracks; it is
+	 * consulted when the buffer becomes full.
+	 */
+
+	public final void setWatermark(LongSupplier watermark) {
+		this.watermark = watermark;
+	}
+
+	/**
+	 * Drops the bytes before pos.
+	 */
+
+	public final void release(long pos) {
+		if (pos > this.filled) {
+			pos = this.filled;
+		}
+		for (long p = this.released; p < pos; p++) {
+			if (this.buffer[(int) p & this.mask] == '\n') {
+				this.releasedLines++;
+			}
+		}
+		if (pos > this.released) {
+			this.released = pos;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/* buffer */
+
+	private void check(long pos) {
+		if (pos < this.released) {
+			throw new ReleasedInputException(this.getResourceName(), pos, this.released);
+		}
+	}
+
+	private boolean fill(long end) {
+		while (this.filled < end && !this.eof) {
+			int free = this.buffer.length - (int) (this.filled - this.released);
+			if (free == 0) {
+				if (this.watermark != null) {
+					this.release(this.watermark.getAsLong());
+				}
+				if (this.filled - this.released == this.buffer.length) {
+					this.grow();
+				}
+				continue;
+			}
+			int start = (int) this.filled & this.mask;
+			int len = Math.min(free, this.buffer.length - start);
+			try {
+				int n = this.channel.read(ByteBuffer.wrap(this.buffer, start, len));
+				if (n < 0) {
+					this.eof = true;
+				} else {
+					this.filled += n;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return end <= this.filled;
+	}
+
+	private void grow() {
+		byte[] b = new byte[this.buffer.length * 2];
+		int newMask = b.length - 1;
+		for (long p = this.released; p < this.filled; p++) {
+			b[(int) p & newMask] = this.buffer[(int) p & this.mask];
+		}
+		this.buffer = b;
+		this.mask = newMask;
+	}
+
+	/* Source */
+
+	@Override
+	public final long length() {
+		this.fill(Long.MAX_VALUE);
+		return this.filled;
+	}
+
+	@Override
+	public final int byteAt(long pos) {
+		if (pos >= this.released && pos < this.filled) {
+			return this.buffer[(int) pos & this.mask] & 0xff;
+		}
+		this.check(pos);
+		if (this.fill(pos + 1)) {
+			return this.buffer[(int) pos & this.mask] & 0xff;
+		}
+		return 0;
+	}
+
+	@Override
+	public final boolean eof(long pos) {
+		return !(pos < this.filled || this.fill(pos + 1));
+	}
+
+	@Override
+	public final boolean match(long pos, byte[] text) {
+		this.check(pos);
+		if (!this.fill(pos + text.length)) {
+			return false;
+		}
+		for (int i = 0; i < text.length; i++) {
+			if (text[i] != this.buffer[(int) (pos + i) & this.mask]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final byte[] subBytes(long startIndex, long endIndex) {
+		this.check(startIndex);
+		this.fill(endIndex);
+		byte[] b = new byte[(int) (Math.min(endIndex, this.filled) - startIndex)];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = this.buffer[(int) (startIndex + i) & this.mask];
+		}
+		return b;
+	}
+
+	@Override
+	public final String subString(long startIndex, long endIndex) {
+		if (endIndex > startIndex) {
+			return new String(this.subBytes(startIndex, endIndex), StandardCharsets.UTF_8);
+		}
+		return "";
+	}
+
+	@Override
+	public final long linenum(long pos) {
+		this.check(pos);
+		this.fill(pos);
+		long count = this.releasedLines;
+		for (long p = this.released; p < pos && p < this.filled; p++) {
+			if (this.buffer[(int) p & this.mask] == '\n') {
+				count++;
+			}
+		}
+		return this.startLineNum + count;
+	}
+
+	@Override
+	public final int column(long pos) {
+		int count = 0;
+		for (long p = pos - 1; p >= this.released; p--) {
+			if (this.byteAt(p) == '\n') {
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	@SuppressWarnings("serial")
+	public static class ReleasedInputException extends RuntimeException {
+		public ReleasedInputException(String resourceName, long pos, long released) {
+			super(String.format("%s: backtracked to released position %d (released up to %d)", resourceName, pos,
+					released));
+		}
+	}
+
+}
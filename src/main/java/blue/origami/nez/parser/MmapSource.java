@@ -0,0 +1,248 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import blue.origami.nez.ast.Source;
+
+/**
+ * MmapSource maps a file into memory with FileChannel.map. A file larger
+ * than 2 GiB is mapped as several chunks; byteAt and match read the mapped
+ * buffers directly, and subSource returns a view that shares them.
+ */
+
+public class MmapSource extends ParserSource implements ByteScanner.Scannable {
+	public final static int DefaultChunkBits = 30; // 1 GiB
+
+	private final MappedByteBuffer[] chunks;
+	private final ByteBuffer[] views; // little-endian, for ByteScanner
+	private final int chunkBits;
+	private final long chunkMask;
+	private final long offset;
+	private final long length;
+	private final LineIndex lines; // shared with sub-sources
+	private final long linesBefore; // newlines before offset
+
+	public MmapSource(String fileName) throws IOException {
+		this(fileName, DefaultChunkBits);
+	}
+
+	public MmapSource(String fileName, int chunkBits) throws IOException {
+		super(fileName, 1);
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel ch = file.getChannel()) {
+			long size = ch.size();
+			long chunkSize = 1L << chunkBits;
+			int n = (int) ((size + chunkSize - 1) >>> chunkBits);
+			this.chunks = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				long start = (long) i << chunkBits;
+				this.chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+			}
+			this.views = new ByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				this.views[i] = this.chunks[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			}
+			this.chunkBits = chunkBits;
+			this.chunkMask = chunkSize - 1;
+			this.offset = 0;
+			this.length = size;
+			this.lines = new LineIndex();
+			this.linesBefore = 0;
+		}
+	}
+
+	private MmapSource(MmapSource base, long linenum, long offset, long length) {
+		super(base.getResourceName(), linenum);
+		this.chunks = base.chunks;
+		this.views = base.views;
+		this.chunkBits = base.chunkBits;
+		this.chunkMask = base.chunkMask;
+		this.offset = offset;
+		this.length = length;
+		this.lines = base.lines;
+		this.linesBefore = this.countLines(offset);
+	}
+
+	@Override
+	public final long length() {
+		return this.length;
+	}
+
+	@Override
+	public final int byteAt(long pos) {
+		if (pos < this.length) {
+			long p = this.offset + pos;
+			return this.chunks[(int) (p >>> this.chunkBits)].get((int) (p & this.chunkMask)) & 0xff;
+		}
+		return 0;
+	}
+
+	@Override
+	public final boolean eof(long pos) {
+		return pos >= this.length;
+	}
+
+	@Override
+	public final boolean match(long pos, byte[] text) {
+		if (pos + text.length > this.length) {
+			return false;
+		}
+		long p = this.offset + pos;
+		int index = (int) (p >>> this.chunkBits);
+		int start = (int) (p & this.chunkMask);
+		ByteBuffer buf = this.chunks[index];
+		if (start + text.length <= buf.limit()) {
+			for (int i = 0; i < text.length; i++) {
+				if (text[i] != buf.get(start + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int i = 0; i < text.length; i++) {
+			if ((text[i] & 0xff) != this.byteAt(pos + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final long scan(long pos, ByteScanner scanner) {
+		long p = this.offset + pos;
+		long end = this.offset + this.length;
+		while (p < end) {
+			int index = (int) (p >>> this.chunkBits);
+			long base = (long) index << this.chunkBits;
+			int limit = (int) Math.min(this.views[index].limit(), end - base);
+			int r = scanner.scan(this.views[index], (int) (p - base), limit);
+			p = base + r;
+			if (r < limit) {
+				if (limit - r < scanner.width() && p + scanner.width() <= end) {
+					return scanner.scan(this, p - this.offset); // a sequence across chunks
+				}
+				break;
+			}
+		}
+		return p - this.offset;
+	}
+
+	@Override
+	public final byte[] subBytes(long startIndex, long endIndex) {
+		byte[] b = new byte[(int) (endIndex - startIndex)];
+		int copied = 0;
+		long p = this.offset + startIndex;
+		while (copied < b.length) {
+			ByteBuffer buf = this.chunks[(int) (p >>> this.chunkBits)].duplicate();
+			buf.position((int) (p & this.chunkMask));
+			int len = Math.min(b.length - copied, buf.remaining());
+			buf.get(b, copied, len);
+			copied += len;
+			p += len;
+		}
+		return b;
+	}
+
+	@Override
+	public final String subString(long startIndex, long endIndex) {
+		if (endIndex > startIndex) {
+			return new String(this.subBytes(startIndex, endIndex), StandardCharsets.UTF_8);
+		}
+		return "";
+	}
+
+	@Override
+	public Source subSource(long startIndex, long endIndex) {
+		return new MmapSource(this, this.linenum(startIndex), this.offset + startIndex, endIndex - startIndex);
+	}
+
+	@Override
+	public final long linenum(long pos) {
+		if (pos > this.length) {
+			pos = this.length;
+		}
+		return this.startLineNum + this.countLines(this.offset + pos) - this.linesBefore;
+	}
+
+	/*
+	 * The number of newlines before each block of the mapped file, built up to
+	 * the highest block asked for; a query scans at most one block.
+	 */
+	private static final class LineIndex {
+		final static int BlockBits = 16;
+		volatile long[] counts = { 0 };
+	}
+
+	/* the number of newlines in the mapped file before the offset p */
+	private long countLines(long p) {
+		int block = (int) (p >>> LineIndex.BlockBits);
+		long[] counts = this.lines.counts;
+		if (block >= counts.length) {
+			counts = this.indexLines(block);
+		}
+		return counts[block] + this.countNewlines((long) block << LineIndex.BlockBits, p);
+	}
+
+	private long[] indexLines(int block) {
+		synchronized (this.lines) {
+			long[] counts = this.lines.counts;
+			if (block < counts.length) {
+				return counts;
+			}
+			long[] n = Arrays.copyOf(counts, Math.max(block + 1, counts.length * 2));
+			for (int i = counts.length; i < n.length; i++) {
+				long start = (long) (i - 1) << LineIndex.BlockBits;
+				n[i] = n[i - 1] + this.countNewlines(start, start + (1L << LineIndex.BlockBits));
+			}
+			this.lines.counts = n;
+			return n;
+		}
+	}
+
+	/* newlines in [start, end) of the mapped file */
+	private long countNewlines(long start, long end) {
+		long n = 0;
+		while (start < end) {
+			int index = (int) (start >>> this.chunkBits);
+			if (index >= this.chunks.length) {
+				break;
+			}
+			ByteBuffer buf = this.chunks[index];
+			int p = (int) (start & this.chunkMask);
+			int limit = (int) Math.min(buf.limit(), p + (end - start));
+			for (int i = p; i < limit; i++) {
+				if (buf.get(i) == '\n') {
+					n++;
+				}
+			}
+			start += (limit - p);
+			if (limit < buf.limit() || limit == p) {
+				break;
+			}
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,172 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * ParallelParser parses a record-oriented input (CSV, JSON lines, logs) on
+ * a ForkJoinPool. The input is cut into chunks of about chunkSize bytes;
+ * each cut is moved forward to the end of the next match of the boundary
+ * production, so that neighboring chunks agree on it without coordination.
+ * Each worker parses its chunk record by record with the parser context
+ * cached in its thread, and the trees are delivered in input order.
+ *
+ * Chunks are parsed in place on the whole source, so a record that crosses
+ * a cut (e.g. a newline inside a quoted field) ends after it; such a chunk
+ * is detected and parsed again sequentially up to the next chunk that
+ * starts where the sequential parse ended.
+ *
+ * Workers read the source concurrently, so it must be immutable and
+ * random-access: a StringSource or an MmapSource. Stateful sources such as
+ * FileSource (a page cache) or ChannelSource (a ring buffer) are rejected.
+ */
+
+public class ParallelParser {
+	public final static int DefaultChunkSize = 1 << 20;
+
+	private final Parser recordParser;
+	private final Parser chunkParser;
+	private final Parser boundaryParser;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	public ParallelParser(Grammar g, String record, OOption options) {
+		this(g, record, options.stringValue(ParserOption.Boundary, "NEWLINE"), options, ForkJoinPool.commonPool(),
+				DefaultChunkSize);
+	}
+
+	public ParallelParser(Grammar g, String record, String boundary, OOption options, ForkJoinPool pool,
+			int chunkSize) {
+		if (!g.hasProduction(record)) {
+			throw new IllegalArgumentException("undefined record production: " + record);
+		}
+		if (!g.hasProduction(boundary)) {
+			throw new IllegalArgumentException("undefined boundary production: " + boundary);
+		}
+		OOption chunkOptions = options.copy();
+		chunkOptions.set(ParserOption.ThrowingParserError, true);
+		this.recordParser = g.newParser(record, options);
+		this.chunkParser = g.newParser(record, chunkOptions);
+		this.boundaryParser = g.newParser(boundary, chunkOptions);
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		/* compiled before the workers share them */
+		this.recordParser.getExecutable();
+		this.chunkParser.getExecutable();
+		this.boundaryParser.getExecutable();
+	}
+
+	/**
+	 * Parses all records and passes their trees to f in input order. Returns
+	 * the end position.
+	 */
+
+	public long parseEach(Source s, Consumer<Tree<?>> f) throws IOException {
+		if (!isShareable(s)) {
+			throw new IllegalArgumentException("not a thread-safe source: " + s.getClass().getSimpleName());
+		}
+		long length = s.length();
+		int n = (int) ((length + this.chunkSize - 1) / this.chunkSize);
+		List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			long start = (long) i * this.chunkSize;
+			tasks.add(this.pool.submit(() -> this.parseChunk(s, start, length)));
+		}
+		long pos = 0;
+		for (ForkJoinTask<Chunk> task : tasks) {
+			Chunk c = task.join();
+			if (c.start == pos && c.aligned) {
+				for (Object t : c.trees) {
+					f.accept((Tree<?>) t);
+				}
+				pos = c.end;
+			} else if (pos < c.end) {
+				long epos = this.parseSequentially(s, pos, c.end, f);
+				if (epos < c.end) {
+					return epos; // syntax error
+				}
+				pos = epos;
+			}
+		}
+		return pos;
+	}
+
+	public List<Tree<?>> parse(Source s) throws IOException {
+		List<Tree<?>> trees = new ArrayList<>();
+		this.parseEach(s, trees::add);
+		return trees;
+	}
+
+	/* sources that several threads may read at once */
+	static boolean isShareable(Source s) {
+		return s instanceof StringSource || s instanceof MmapSource;
+	}
+
+	private long parseSequentially(Source s, long pos, long end, Consumer<Tree<?>> f) throws IOException {
+		return this.recordParser.getExecutable().parseEach(s, (int) pos, (int) end, Parser.defaultTree,
+				Parser.defaultTree, (Object t) -> f.accept((Tree<?>) t));
+	}
+
+	static class Chunk {
+		long start;
+		long end;
+		boolean aligned;
+		List<Object> trees = new ArrayList<>();
+	}
+
+	private Chunk parseChunk(Source s, long nominal, long length) {
+		Chunk c = new Chunk();
+		c.start = nominal == 0 ? 0 : this.nextBoundary(s, nominal, length);
+		c.end = this.nextBoundary(s, nominal + this.chunkSize, length);
+		if (c.start < c.end) {
+			try {
+				/* a record that crosses the cut ends after it */
+				long epos = this.chunkParser.getExecutable().parseEach(s, (int) c.start, (int) c.end,
+						Parser.defaultTree, Parser.defaultTree, c.trees::add);
+				c.aligned = epos == c.end;
+			} catch (IOException e) {
+				c.aligned = false;
+			}
+		} else {
+			c.aligned = c.start == c.end; // a record longer than chunkSize
+		}
+		return c;
+	}
+
+	/* the end of the first boundary match at or after pos */
+	private long nextBoundary(Source s, long pos, long length) {
+		for (long p = pos; p < length; p++) {
+			long epos = this.boundaryParser.match(s, (int) p);
+			if (epos > p) {
+				return epos;
+			}
+		}
+		return length;
+	}
+
+}
@@ -17,6 +17,7 @@
 package blue.origami.nez.parser;
 
 import java.io.IOException;
+import java.util.function.Consumer;
 
 import blue.origami.nez.ast.CommonTree;
 import blue.origami.nez.ast.Source;
@@ -26,13 +27,14 @@ import blue.origami.nez.parser.pasm.PAsmCompiler;
 import blue.origami.nez.parser.pasm.PAsmAPI.TreeFunc;
 import blue.origami.nez.parser.pasm.PAsmAPI.TreeSetFunc;
 import blue.origami.nez.peg.Production;
+import blue.origami.util.OConsole;
 import blue.origami.util.OOption;
 
 public final class Parser {
 
 	private final Production start;
 	private final OOption options;
-	private ParserCode compiledParserCode = null;
+	private volatile ParserCode compiledParserCode = null; // published once compiled
 
 	public Parser(Production start, OOption options) {
 		this.options = options;
@@ -40,27 +42,93 @@ public final class Parser {
 		assert start != null;
 	}
 
+	/* a parser for precompiled code, e.g. loaded by ParserCache */
+	public Parser(ParserCode code, OOption options) {
+		this.options = options;
+		this.start = null;
+		this.compiledParserCode = code;
+	}
+
+	public final boolean isPrecompiled() {
+		return this.start == null;
+	}
+
 	public final ParserGrammar getParserGrammar() {
-		if (this.compiledParserCode == null) {
-			this.compile();
-		}
-		return this.compiledParserCode.getParserGrammar();
+		return this.getExecutable().getParserGrammar();
 	}
 
-	public final ParserCode compile() {
-		ParserCompiler compl = this.options.newInstance(PAsmCompiler.class);
+	public final synchronized ParserCode compile() {
+		if (this.start == null) {
+			return this.compiledParserCode;
+		}
+		ParserCompiler compl = this.newCompiler();
 		long t = this.options.nanoTime(null, 0);
 		ParserGrammar g = new ParserChecker(this.options, this.start).checkParserGrammar();
-		this.compiledParserCode = compl.compile(g);
+		ParserCode code = compl.compile(g);
 		this.options.nanoTime("ParserCompilingTime@" + this.start.getUniqueName(), t);
-		return this.compiledParserCode;
+		this.compiledParserCode = code;
+		return code;
+	}
+
+	private ParserCompiler newCompiler() {
+		if (this.options.get(ParserCompiler.class) == null) {
+			String name = this.options.stringValue(ParserOption.Compiler, null);
+			if (name != null) {
+				try {
+					this.options.setClass(name);
+				} catch (Throwable e) {
+					this.options.verbose("undefined compiler %s", name);
+				}
+			}
+		}
+		if (this.options.get(ParserCompiler.class) != null) {
+			return this.options.newInstance(ParserCompiler.class);
+		}
+		return this.options.newInstance(PAsmCompiler.class);
+	}
+
+	public final void saveMemoProfile() throws IOException {
+		String file = this.options.stringValue(ParserOption.MemoProfile, null);
+		if (file != null) {
+			this.getParserGrammar().saveMemoProfile(file);
+		}
+	}
+
+	/**
+	 * Prints the hot productions recorded with -DProfile and, for
+	 * -DProfile=file, saves the folded stacks for flame graphs.
+	 */
+
+	public final void reportProfile() throws IOException {
+		ParserProfiler prof = this.options.get(ParserProfiler.class);
+		if (prof == null && ParserProfiler.isEnabled(this.options)) {
+			OConsole.println("-DProfile is supported by the PAsm compiler only; %s profiled nothing",
+					this.getExecutable().getClass().getSimpleName());
+		}
+		if (prof != null) {
+			OConsole.println(prof.report(this.getParserGrammar(), 30));
+			Object file = this.options.get(ParserOption.Profile);
+			if (file instanceof String) {
+				prof.saveFlameGraph((String) file);
+			}
+		}
+	}
+
+	public final ParserSession newSession() {
+		return new ParserSession(this.getExecutable().newSession());
 	}
 
 	public final ParserCode getExecutable() {
-		if (this.compiledParserCode == null) {
-			this.compile();
+		ParserCode code = this.compiledParserCode;
+		if (code == null) {
+			synchronized (this) {
+				code = this.compiledParserCode;
+				if (code == null) {
+					code = this.compile();
+				}
+			}
 		}
-		return this.compiledParserCode;
+		return code;
 	}
 
 	/* --------------------------------------------------------------------- */
@@ -95,7 +163,7 @@ public final class Parser {
 		return this.match(ParserSource.newStringSource(str));
 	}
 
-	private static CommonTree defaultTree = new CommonTree();
+	static CommonTree defaultTree = new CommonTree();
 
 	public final Tree<?> parse(Source sc) throws IOException {
 		return (CommonTree) this.parse(sc, 0, defaultTree, defaultTree);
@@ -105,6 +173,22 @@ public final class Parser {
 		return this.parse(ParserSource.newStringSource(str));
 	}
 
+	/**
+	 * Parses the input as a sequence of records, each matched by the start
+	 * production, and passes every record tree to f as soon as it is
+	 * complete. The parser keeps no state behind the current record; with a
+	 * ChannelSource, the text of a record is released after f returns.
+	 *
+	 * <pre>
+	 * g.newParser("Line", options).parseEach(source, t -&gt; System.out.println(t));
+	 * </pre>
+	 */
+
+	public final long parseEach(Source s, Consumer<Tree<?>> f) throws IOException {
+		return this.getExecutable().parseEach(s, 0, Integer.MAX_VALUE, defaultTree, defaultTree,
+				(Object t) -> f.accept((Tree<?>) t));
+	}
+
 	/* Error Handling */
 
 }
@@ -0,0 +1,219 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeMap;
+
+import blue.origami.OVersion;
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.SourcePosition;
+import blue.origami.nez.parser.ParserGrammar.MemoPointAnalysis;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.Production;
+import blue.origami.nez.peg.SourceGrammar;
+import blue.origami.util.OOption;
+
+/**
+ * ParserCache keeps compiled parsers on disk, so that a later run skips
+ * loading, checking and compiling the grammar. An entry is keyed by a hash of
+ * the grammar source and of the options that change the compiled code; it
+ * also records the hashes of imported grammar files, and is recompiled when
+ * one of them changes.
+ *
+ * <pre>
+ * origami parse -g js.opeg -DCache=/tmp/origami jquery.js
+ * </pre>
+ */
+
+public class ParserCache {
+	private final static String Magic = "OPAsmCache";
+	private final static int Format = 3; // the serialized form of PAsmCode, bumped with instruction fields
+
+	/* options that change the checked grammar or the compiled code */
+	private final static ParserOption[] KeyOptions = { ParserOption.Start, ParserOption.Pass, ParserOption.PassPath,
+			ParserOption.Optimized, ParserOption.StrictChecker, ParserOption.TreeConstruction,
+			ParserOption.PackratParsing, ParserOption.Coverage };
+
+	private final File dir;
+	private final OOption options;
+
+	public ParserCache(String dir, OOption options) {
+		this.dir = new File(dir);
+		this.options = options;
+	}
+
+	/**
+	 * Returns a parser for the grammar file, loaded from the cache or compiled
+	 * and stored in it.
+	 */
+
+	public Parser newParser(String file, String[] paths) throws IOException {
+		if (!this.isCacheable()) {
+			return SourceGrammar.loadFile(file, paths).newParser(this.options);
+		}
+		File entry = new File(this.dir, this.key(file, paths) + ".pasm");
+		Parser p = this.load(entry, paths);
+		if (p != null) {
+			this.options.verbose("loaded %s from %s", file, entry);
+			return p;
+		}
+		Grammar g = SourceGrammar.loadFile(file, paths);
+		p = g.newParser(this.options);
+		if (p != null) {
+			this.store(entry, file, g, (PAsmCode) p.compile(), paths);
+		}
+		return p;
+	}
+
+	/*
+	 * only the default PAsm compiler, fused, with the default lookahead and
+	 * without profiling traps, produces code that can be stored
+	 */
+	private boolean isCacheable() {
+		return this.options.stringValue(ParserOption.Compiler, null) == null
+				&& this.options.get(ParserCompiler.class) == null
+				&& this.options.get(MemoPointAnalysis.class) == null
+				&& this.options.get(ParserOption.Profile) == null
+				&& this.options.is(ParserOption.Fusion, true)
+				&& this.options.get(ParserOption.Lookahead) == null;
+	}
+
+	final String key(String file, String[] paths) throws IOException {
+		MessageDigest md = digest();
+		update(md, Magic + Format + OVersion.Version);
+		update(md, file);
+		md.update(read(file, paths));
+		for (ParserOption o : KeyOptions) {
+			Object v = this.options.get(o);
+			update(md, o + "=" + (v instanceof String[] ? String.join(",", (String[]) v) : v));
+		}
+		return hex(md.digest());
+	}
+
+	private Parser load(File entry, String[] paths) {
+		if (!entry.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+			if (!in.readUTF().equals(Magic) || in.readInt() != Format) {
+				return null;
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String name = in.readUTF();
+				String hash = in.readUTF();
+				if (!hash.equals(hash(read(name, paths)))) {
+					this.options.verbose("changed %s", name);
+					return null;
+				}
+			}
+			return new Parser(PAsmCode.readFrom(in, this.options), this.options);
+		} catch (IOException e) {
+			this.options.verbose("unloaded %s: %s", entry, e);
+			return null;
+		}
+	}
+
+	private void store(File entry, String file, Grammar g, PAsmCode code, String[] paths) {
+		TreeMap<String, String> imports = new TreeMap<>();
+		this.collectImports(g, file, imports, paths);
+		try {
+			this.dir.mkdirs();
+			File temp = File.createTempFile("pasm", ".tmp", this.dir);
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeUTF(Magic);
+				out.writeInt(Format);
+				out.writeInt(imports.size());
+				for (String name : imports.keySet()) {
+					out.writeUTF(name);
+					out.writeUTF(imports.get(name));
+				}
+				code.writeTo(out);
+			}
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			this.options.verbose("stored %s in %s", file, entry);
+		} catch (IOException e) {
+			this.options.verbose("unstored %s: %s", entry, e);
+		}
+	}
+
+	/* grammar files, other than the main one, that productions come from */
+	private void collectImports(Grammar g, String file, TreeMap<String, String> imports, String[] paths) {
+		for (Production p : g) {
+			SourcePosition s = p.getExpression().getSourcePosition();
+			if (s != null && s.getSource() != null) {
+				String name = s.getSource().getResourceName();
+				if (name != null && !name.equals(file) && !imports.containsKey(name)) {
+					try {
+						imports.put(name, hash(read(name, paths)));
+					} catch (IOException e) {
+						imports.put(name, "");
+					}
+				}
+			}
+		}
+		for (Grammar lg : g.getLocalGrammars()) {
+			this.collectImports(lg, file, imports, paths);
+		}
+	}
+
+	private static byte[] read(String file, String[] paths) throws IOException {
+		Source s = ParserSource.newFileSource(file, paths);
+		return s.subBytes(0, s.length());
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+	}
+
+	private static String hash(byte[] b) {
+		return hex(digest().digest(b));
+	}
+
+	private static String hex(byte[] b) {
+		StringBuilder sb = new StringBuilder();
+		for (byte c : b) {
+			sb.append(String.format("%02x", c & 0xff));
+		}
+		return sb.toString();
+	}
+}
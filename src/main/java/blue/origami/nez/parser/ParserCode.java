@@ -16,6 +16,7 @@
 package blue.origami.nez.parser;
 
 import java.io.IOException;
+import java.util.function.Consumer;
 
 import blue.origami.nez.ast.LocaleFormat;
 import blue.origami.nez.ast.Source;
@@ -31,6 +32,24 @@ public interface ParserCode {
 
 	public Object parse(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException;
 
+	/**
+	 * Parses records repeatedly from pos until the end of input (or until a
+	 * record ends at or after end), passing each tree to emit as soon as it
+	 * is complete. Returns the end position.
+	 */
+
+	public long parseEach(Source s, int pos, int end, TreeFunc newTree, TreeSetFunc linkTree, Consumer<Object> emit)
+			throws IOException;
+
+	/**
+	 * Returns a code that reuses its parser context across calls. The returned
+	 * code is owned by a single thread.
+	 */
+
+	public default ParserCode newSession() {
+		return this;
+	}
+
 	public default void checkSyntaxError(OOption options, Object result) {
 
 	}
@@ -18,4 +18,7 @@ package blue.origami.nez.parser;
 
 public interface ParserContext {
 
+	/* the current input position, e.g. read by trap actions */
+	public long getPosition();
+
 }
@@ -16,8 +16,19 @@
 
 package blue.origami.nez.parser;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import blue.origami.nez.peg.Grammar;
 import blue.origami.nez.peg.Production;
@@ -55,7 +66,8 @@ public class ParserGrammar extends Grammar {
 
 	/* MemoPoint */
 
-	public final static class MemoPoint {
+	@SuppressWarnings("serial")
+	public final static class MemoPoint implements Serializable {
 		public final int id;
 		public final String label;
 		public final Typestate typeState;
@@ -76,70 +88,133 @@ public class ParserGrammar extends Grammar {
 			return this.typeState;
 		}
 
-		int memoHit = 0;
-		int memoFailHit = 0;
-		long hitLength = 0;
-		int maxLength = 0;
-		int memoMiss = 0;
+		/*
+		 * The statistics are shared by every thread that parses with the
+		 * grammar, so they are atomic; they describe this run only and are
+		 * never serialized with the compiled code.
+		 */
+		private transient AtomicInteger memoHit = new AtomicInteger();
+		private transient AtomicInteger memoFailHit = new AtomicInteger();
+		private transient AtomicLong hitLength = new AtomicLong();
+		private transient AtomicInteger maxLength = new AtomicInteger();
+		private transient AtomicInteger memoMiss = new AtomicInteger();
 
 		public void memoHit(int consumed) {
-			this.memoHit += 1;
-			this.hitLength += consumed;
-			if (this.maxLength < consumed) {
-				this.maxLength = consumed;
+			this.memoHit.incrementAndGet();
+			this.hitLength.addAndGet(consumed);
+			if (this.maxLength.get() < consumed) {
+				this.maxLength.accumulateAndGet(consumed, Math::max);
 			}
 		}
 
 		public void failHit() {
-			this.memoFailHit += 1;
+			this.memoFailHit.incrementAndGet();
 		}
 
 		public void miss() {
-			this.memoMiss++;
+			int miss = this.memoMiss.incrementAndGet();
+			if (this.enabled && this.checkDeactivation(miss)) {
+				this.enabled = false;
+			}
+		}
+
+		public final int hits() {
+			return this.memoHit.get();
+		}
+
+		public final int failHits() {
+			return this.memoFailHit.get();
+		}
+
+		public final int misses() {
+			return this.memoMiss.get();
+		}
+
+		/* Adaptive memoization */
+
+		private transient volatile boolean enabled = true;
+		private transient AtomicInteger skipped = new AtomicInteger();
+
+		/* a deactivated memo point is probed again after this number of calls */
+		static final int ReprobeInterval = 1 << 16;
+
+		public final boolean isEnabled() {
+			return this.enabled;
+		}
+
+		public final void skip() {
+			if (this.skipped.incrementAndGet() == ReprobeInterval) {
+				this.setEnabled(true);
+			}
+		}
+
+		public final void setEnabled(boolean enabled) {
+			this.memoHit.set(0);
+			this.memoFailHit.set(0);
+			this.hitLength.set(0);
+			this.maxLength.set(0);
+			this.memoMiss.set(0);
+			this.skipped.set(0);
+			this.enabled = enabled;
+		}
+
+		final void setCounts(int hit, int failHit, int miss) {
+			this.memoHit.set(hit);
+			this.memoFailHit.set(failHit);
+			this.memoMiss.set(miss);
 		}
 
 		public final double hitRatio() {
-			if (this.memoMiss == 0) {
+			int miss = this.memoMiss.get();
+			if (miss == 0) {
 				return 0.0;
 			}
-			return (double) this.memoHit / this.memoMiss;
+			return (double) this.memoHit.get() / miss;
 		}
 
 		public final double failHitRatio() {
-			if (this.memoMiss == 0) {
+			int miss = this.memoMiss.get();
+			if (miss == 0) {
 				return 0.0;
 			}
-			return (double) this.memoFailHit / this.memoMiss;
+			return (double) this.memoFailHit.get() / miss;
 		}
 
 		public final double meanLength() {
-			if (this.memoHit == 0) {
+			int hit = this.memoHit.get();
+			if (hit == 0) {
 				return 0.0;
 			}
-			return (double) this.hitLength / this.memoHit;
+			return (double) this.hitLength.get() / hit;
 		}
 
 		public final int count() {
-			return this.memoMiss + this.memoFailHit + this.memoHit;
+			return this.memoMiss.get() + this.memoFailHit.get() + this.memoHit.get();
 		}
 
-		protected final boolean checkDeactivation() {
-			if (this.memoMiss == 32) {
-				if (this.memoHit < 2) {
+		protected final boolean checkDeactivation(int miss) {
+			int hit = this.memoHit.get() + this.memoFailHit.get();
+			if (miss == 32) {
+				if (hit < 2) {
 					return true;
 				}
 			}
-			if (this.memoMiss % 64 == 0) {
-				if (this.memoHit == 0) {
+			if (miss % 64 == 0) {
+				if (hit == 0) {
 					return true;
 				}
-				if (this.memoMiss / this.memoHit > 10) {
+				if (miss / hit > 10) {
 					return true;
 				}
 			}
 			return false;
 		}
 
+		/* a memo point loaded from a cache starts enabled, without statistics */
+		private Object readResolve() {
+			return new MemoPoint(this.id, this.label, this.typeState, this.contextSensitive);
+		}
+
 		@Override
 		public String toString() {
 			return this.label + "[id=" + this.id + "]";
@@ -160,10 +235,71 @@ public class ParserGrammar extends Grammar {
 		return this.memoPointMap != null ? this.memoPointMap.size() : 0;
 	}
 
+	public final Collection<MemoPoint> getMemoPoints() {
+		return this.memoPointMap != null ? this.memoPointMap.values() : Collections.emptyList();
+	}
+
 	public void initMemoPoint() {
 		MemoPointAnalysis memo = this.options.newInstance(MemoPointAnalysis.class);
 		this.memoPointMap = new HashMap<>();
 		memo.init(this, this.memoPointMap);
+		this.loadMemoProfile();
+	}
+
+	/**
+	 * Returns a grammar without productions that only carries the memo points
+	 * of a compiled parser loaded from a cache.
+	 */
+
+	public static ParserGrammar newCompiledGrammar(String name, boolean isBinary, Collection<MemoPoint> memoPoints,
+			OOption options) {
+		ParserGrammar g = new ParserGrammar(name, isBinary, options);
+		g.memoPointMap = new HashMap<>();
+		for (MemoPoint p : memoPoints) {
+			g.memoPointMap.put(p.label, p);
+		}
+		g.loadMemoProfile();
+		return g;
+	}
+
+	private void loadMemoProfile() {
+		String file = this.options.stringValue(ParserOption.MemoProfile, null);
+		if (file != null && new File(file).exists()) {
+			try {
+				this.loadMemoProfile(file);
+			} catch (IOException e) {
+				this.options.verbose("unloaded memo profile %s: %s", file, e);
+			}
+		}
+	}
+
+	/* Memo profile (label, on/off, hit, fail hit, miss per line) */
+
+	public final void saveMemoProfile(String file) throws IOException {
+		if (this.memoPointMap != null) {
+			try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+				w.println("# memo profile " + this.getName());
+				for (String key : this.memoPointMap.keySet()) {
+					MemoPoint p = this.memoPointMap.get(key);
+					w.printf("%s\t%s\t%d\t%d\t%d%n", p.label, p.isEnabled() ? "on" : "off", p.hits(), p.failHits(),
+							p.misses());
+				}
+			}
+		}
+	}
+
+	public final void loadMemoProfile(String file) throws IOException {
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+			String[] t = line.split("\t");
+			if (line.startsWith("#") || t.length < 5) {
+				continue;
+			}
+			MemoPoint p = this.getMemoPoint(t[0]);
+			if (p != null) {
+				p.setEnabled(t[1].equals("on"));
+				p.setCounts(Integer.parseInt(t[2]), Integer.parseInt(t[3]), Integer.parseInt(t[4]));
+			}
+		}
 	}
 
 	public static class MemoPointAnalysis implements OptionalFactory<MemoPointAnalysis> {
@@ -198,11 +334,11 @@ public class ParserGrammar extends Grammar {
 
 	public final void dumpMemoPoints() {
 		if (this.memoPointMap != null) {
-			this.options.verbose("ID\tPEG\tCount\tHit\tFail\tMean");
+			this.options.verbose("ID\tPEG\tCount\tHit\tFail\tMean\tEnabled");
 			for (String key : this.memoPointMap.keySet()) {
 				MemoPoint p = this.memoPointMap.get(key);
-				this.options.verbose("%d\t%s\t%d\t%f\t%f\t%f", p.id, p.label, p.count(), p.hitRatio(), p.failHitRatio(),
-						p.meanLength());
+				this.options.verbose("%d\t%s\t%d\t%f\t%f\t%f\t%s", p.id, p.label, p.count(), p.hitRatio(),
+						p.failHitRatio(), p.meanLength(), p.isEnabled());
 			}
 			this.options.verbose("");
 		}
@@ -5,7 +5,8 @@ import blue.origami.util.OOption.OOptionKey;
 public enum ParserOption implements OOptionKey {
 	Verbose, WindowSize, Pass, Optimized, PassPath, StrictChecker, TrapActions, //
 	TreeConstruction, PackratParsing, Coverage, GrammarFile, GrammarPath, Start, //
-	PartialFailure, ThrowingParserError, InlineGrammar, InputFiles, Target;
+	PartialFailure, ThrowingParserError, InlineGrammar, InputFiles, Target, Compiler, //
+	MemoTable, MemoProfile, Boundary, Cache, Profile, DirectInput, Fusion, Lookahead;
 
 	@Override
 	public String toString() {
@@ -0,0 +1,336 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import blue.origami.nez.parser.ParserGrammar.MemoPoint;
+import blue.origami.util.OOption;
+
+/**
+ * Per-production profile, enabled by -DProfile (or -DProfile=file to also
+ * export folded stacks for flame graphs). The compiler wraps each production
+ * in enter/exit/fail traps; calls, consumed bytes, backtracks (failed calls)
+ * and inclusive time are recorded along the call tree of each thread.
+ */
+
+public class ParserProfiler {
+
+	private final int trapId;
+	private final HashMap<String, Integer> uidMap = new HashMap<>();
+	private final ArrayList<String> names = new ArrayList<>();
+	private final ArrayList<Cursor> cursors = new ArrayList<>();
+	private final ThreadLocal<Cursor> cursor = new ThreadLocal<>();
+
+	ParserProfiler(int trapId) {
+		this.trapId = trapId;
+	}
+
+	/**
+	 * Returns the profiler shared by parsers compiled with the options, or null
+	 * unless the Profile option is set.
+	 */
+
+	public static ParserProfiler of(OOption options) {
+		if (!isEnabled(options)) {
+			return null;
+		}
+		synchronized (ParserProfiler.class) {
+			ParserProfiler prof = options.get(ParserProfiler.class);
+			if (prof == null) {
+				TrapAction[] traps = options.get(ParserOption.TrapActions);
+				prof = new ParserProfiler(traps == null ? 0 : traps.length);
+				options.add(ParserOption.TrapActions, new TrapAction[] { prof.new EnterAction(),
+						prof.new ExitAction(), prof.new FailAction() });
+				options.set(ParserProfiler.class, prof);
+			}
+			return prof;
+		}
+	}
+
+	public static boolean isEnabled(OOption options) {
+		Object v = options.get(ParserOption.Profile);
+		return v != null && !Boolean.FALSE.equals(v);
+	}
+
+	/* trap ids of enter, exit and fail */
+
+	public final int enterTrap() {
+		return this.trapId;
+	}
+
+	public final int exitTrap() {
+		return this.trapId + 1;
+	}
+
+	public final int failTrap() {
+		return this.trapId + 2;
+	}
+
+	public synchronized int uid(String uname) {
+		Integer u = this.uidMap.get(uname);
+		if (u == null) {
+			u = this.names.size();
+			this.uidMap.put(uname, u);
+			this.names.add(uname);
+		}
+		return u;
+	}
+
+	/* call tree */
+
+	static class Node {
+		final Node parent;
+		final int uid;
+		final boolean outermost; // no caller of the same production
+		Node[] children = new Node[0];
+		long calls;
+		long fails;
+		long bytes;
+		long nanos;
+
+		Node(Node parent, int uid) {
+			this.parent = parent;
+			this.uid = uid;
+			boolean outermost = true;
+			for (Node n = parent; n != null; n = n.parent) {
+				if (n.uid == uid) {
+					outermost = false;
+					break;
+				}
+			}
+			this.outermost = outermost;
+		}
+
+		Node child(int uid) {
+			for (Node c : this.children) {
+				if (c.uid == uid) {
+					return c;
+				}
+			}
+			Node c = new Node(this, uid);
+			this.children = Arrays.copyOf(this.children, this.children.length + 1);
+			this.children[this.children.length - 1] = c;
+			return c;
+		}
+
+		long selfNanos() {
+			long self = this.nanos;
+			for (Node c : this.children) {
+				self -= c.nanos;
+			}
+			return self;
+		}
+	}
+
+	static class Cursor {
+		final Node root = new Node(null, -1);
+		Node node = this.root;
+		int depth = 0;
+		long[] startTime = new long[64];
+		long[] startPos = new long[64];
+	}
+
+	private Cursor cursor() {
+		Cursor c = this.cursor.get();
+		if (c == null) {
+			c = new Cursor();
+			this.cursor.set(c);
+			synchronized (this.cursors) {
+				this.cursors.add(c);
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Starts a new parse on the current thread at the root of its call tree;
+	 * a parse that ended early (an exception or an exit) may have left the
+	 * cursor inside a production.
+	 */
+
+	public final void resetCursor() {
+		Cursor c = this.cursor.get();
+		if (c != null) {
+			c.node = c.root;
+			c.depth = 0;
+		}
+	}
+
+	class EnterAction implements TrapAction {
+		@Override
+		public void performed(ParserContext px, int uid) {
+			Cursor c = ParserProfiler.this.cursor();
+			if (c.depth == c.startTime.length) {
+				c.startTime = Arrays.copyOf(c.startTime, c.depth * 2);
+				c.startPos = Arrays.copyOf(c.startPos, c.depth * 2);
+			}
+			c.node = c.node.child(uid);
+			c.startPos[c.depth] = px.getPosition();
+			c.startTime[c.depth++] = System.nanoTime();
+		}
+	}
+
+	class ExitAction implements TrapAction {
+		@Override
+		public void performed(ParserContext px, int uid) {
+			long t = System.nanoTime();
+			Cursor c = ParserProfiler.this.cursor();
+			if (c.depth > 0) {
+				Node n = c.node;
+				c.depth--;
+				n.calls++;
+				n.bytes += px.getPosition() - c.startPos[c.depth];
+				n.nanos += t - c.startTime[c.depth];
+				c.node = n.parent;
+			}
+		}
+	}
+
+	class FailAction implements TrapAction {
+		@Override
+		public void performed(ParserContext px, int uid) {
+			long t = System.nanoTime();
+			Cursor c = ParserProfiler.this.cursor();
+			if (c.depth > 0) {
+				Node n = c.node;
+				c.depth--;
+				n.calls++;
+				n.fails++;
+				n.nanos += t - c.startTime[c.depth];
+				c.node = n.parent;
+			}
+		}
+	}
+
+	/* report */
+
+	public static class Entry {
+		public final String name;
+		public long calls;
+		public long fails;
+		public long bytes;
+		public long nanos; // inclusive, counted at the outermost call
+		public long selfNanos;
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Returns the per-production totals, hottest (by self time) first.
+	 */
+
+	public synchronized Entry[] entries() {
+		Entry[] entries = new Entry[this.names.size()];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Entry(this.names.get(i));
+		}
+		synchronized (this.cursors) {
+			for (Cursor c : this.cursors) {
+				for (Node n : c.root.children) {
+					this.sum(entries, n);
+				}
+			}
+		}
+		Arrays.sort(entries, (e, e2) -> Long.compare(e2.selfNanos, e.selfNanos));
+		return entries;
+	}
+
+	private void sum(Entry[] entries, Node n) {
+		Entry e = entries[n.uid];
+		e.calls += n.calls;
+		e.fails += n.fails;
+		e.bytes += n.bytes;
+		e.selfNanos += n.selfNanos();
+		if (n.outermost) {
+			e.nanos += n.nanos;
+		}
+		for (Node c : n.children) {
+			this.sum(entries, c);
+		}
+	}
+
+	/**
+	 * Formats the hottest productions with the memo statistics of the grammar.
+	 */
+
+	public String report(ParserGrammar g, int limit) {
+		HashMap<String, MemoPoint> memoMap = new HashMap<>();
+		if (g != null) {
+			for (MemoPoint m : g.getMemoPoints()) {
+				memoMap.put(m.label, m);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-32s %10s %10s %12s %10s %10s %s%n", "Production", "calls", "backtracks", "bytes",
+				"self[ms]", "total[ms]", "memo(hit/fail/miss)"));
+		Entry[] entries = this.entries();
+		for (int i = 0; i < entries.length && i < limit; i++) {
+			Entry e = entries[i];
+			if (e.calls == 0) {
+				break;
+			}
+			MemoPoint m = memoMap.get(e.name);
+			sb.append(String.format("%-32s %10d %10d %12d %10.3f %10.3f %s%n", e.name, e.calls, e.fails, e.bytes,
+					e.selfNanos / 1000000.0, e.nanos / 1000000.0,
+					m == null ? "-" : m.hits() + "/" + m.failHits() + "/" + m.misses()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes folded stacks ("File;Value;String self-nanos" per line), the input
+	 * format of flamegraph.pl and speedscope.
+	 */
+
+	public void saveFlameGraph(String file) throws IOException {
+		try (PrintWriter w = new PrintWriter(file, "UTF-8")) {
+			synchronized (this) {
+				synchronized (this.cursors) {
+					for (Cursor c : this.cursors) {
+						for (Node n : c.root.children) {
+							this.fold(w, new StringBuilder(), n);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void fold(PrintWriter w, StringBuilder path, Node n) {
+		int len = path.length();
+		if (len > 0) {
+			path.append(';');
+		}
+		path.append(this.names.get(n.uid));
+		long self = n.selfNanos();
+		if (self > 0) {
+			w.append(path).append(' ').println(self);
+		}
+		for (Node c : n.children) {
+			this.fold(w, path, c);
+		}
+		path.setLength(len);
+	}
+}
@@ -0,0 +1,169 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import blue.origami.nez.parser.ParserGrammar.MemoPointAnalysis;
+import blue.origami.nez.peg.SourceGrammar;
+import blue.origami.util.OOption;
+
+/**
+ * ParserRegistry shares compiled parsers among the threads of a process. A
+ * parser is compiled once for each grammar file, start production and set of
+ * parser options (the compiler, passes, error handling, memo table, traps and
+ * so on); a concurrent request for the same key waits for that compilation
+ * instead of repeating it. A registered parser owns a copy of the options and
+ * never changes its code after publication; each thread parses in its own
+ * context, and the statistics that threads share (memo points, memo tables,
+ * profiles) are updated atomically.
+ *
+ * <pre>
+ * Parser p = registry.getParser("json.opeg", null, options); // from any thread
+ * </pre>
+ */
+
+public class ParserRegistry {
+	private final ConcurrentHashMap<List<Object>, FutureTask<Parser>> parserMap = new ConcurrentHashMap<>();
+
+	public Parser getParser(String file, String start, OOption options) throws IOException {
+		OOption local = options.copy();
+		if (start != null) {
+			local.set(ParserOption.Start, start);
+		}
+		List<Object> key = registryKey(file, local);
+		FutureTask<Parser> task = this.parserMap.get(key);
+		if (task == null) {
+			FutureTask<Parser> t = new FutureTask<>(() -> compile(file, local));
+			task = this.parserMap.putIfAbsent(key, t);
+			if (task == null) {
+				task = t;
+				t.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(file);
+		} catch (ExecutionException e) {
+			this.parserMap.remove(key, task); // a later request tries again
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public ParserCode getCode(String file, String start, OOption options) throws IOException {
+		return this.getParser(file, start, options).getExecutable();
+	}
+
+	public int size() {
+		return this.parserMap.size();
+	}
+
+	public void clear() {
+		this.parserMap.clear();
+	}
+
+	/* options that direct the command line, not the parser */
+	private final static ParserOption[] CommandOptions = { ParserOption.GrammarFile, ParserOption.InlineGrammar,
+			ParserOption.InputFiles, ParserOption.Target, ParserOption.Cache, ParserOption.Boundary };
+
+	/* the grammar file and every option that a parser is compiled or run with */
+	static List<Object> registryKey(String file, OOption options) {
+		List<Object> key = new ArrayList<>();
+		key.add(file);
+		for (ParserOption o : ParserOption.values()) {
+			Object v = options.get(o);
+			if (v != null && !isCommandOption(o)) {
+				key.add(o);
+				key.add(keyValue(v));
+			}
+		}
+		/* extension classes; a profiler collects its own results */
+		key.add(keyClass(options.get(ParserCompiler.class)));
+		key.add(keyClass(options.get(MemoPointAnalysis.class)));
+		key.add(keyValue(options.get(ParserProfiler.class)));
+		return key;
+	}
+
+	private static boolean isCommandOption(ParserOption o) {
+		for (ParserOption c : CommandOptions) {
+			if (c == o) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* strings and numbers by value, other objects (e.g. trap actions) by identity */
+	private static Object keyValue(Object v) {
+		if (v == null || v instanceof String || v instanceof Number || v instanceof Boolean) {
+			return v;
+		}
+		if (v instanceof Object[]) {
+			List<Object> l = new ArrayList<>();
+			for (Object e : (Object[]) v) {
+				l.add(keyValue(e));
+			}
+			return l;
+		}
+		return new Identity(v);
+	}
+
+	private static Object keyClass(Object v) {
+		return v == null ? null : v.getClass();
+	}
+
+	private final static class Identity {
+		private final Object value;
+
+		Identity(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Identity && ((Identity) o).value == this.value;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.value);
+		}
+	}
+
+	private static Parser compile(String file, OOption options) throws IOException {
+		String[] paths = options.get(ParserOption.GrammarPath);
+		String cache = options.stringValue(ParserOption.Cache, null);
+		Parser p = cache != null ? new ParserCache(cache, options).newParser(file, paths)
+				: SourceGrammar.loadFile(file, paths).newParser(options);
+		if (p == null) {
+			throw new IOException("undefined production " + options.stringValue(ParserOption.Start, null));
+		}
+		p.getExecutable(); // compiled before publication
+		return p;
+	}
+}
@@ -0,0 +1,276 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+
+/**
+ * ParserService parses many small documents (request payloads, config
+ * snippets) against one parser on a bounded pool of worker threads. Each
+ * worker reuses the parser context cached in its thread. At most maxInFlight
+ * documents are queued or running; a caller that submits more waits, which
+ * keeps a fast producer from filling the heap. Every document is timed from
+ * submission to completion, and the service reports throughput and latency
+ * percentiles.
+ *
+ * <pre>
+ * try (ParserService service = new ParserService(parser)) {
+ * 	service.parse(source).thenAccept(t -&gt; ...);
+ * 	System.out.println(service.getStats());
+ * }
+ * </pre>
+ */
+
+public class ParserService implements AutoCloseable {
+	private final Parser parser;
+	private final ThreadPoolExecutor executor;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final Stats stats = new Stats();
+
+	public ParserService(Parser parser) {
+		this(parser, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 64);
+	}
+
+	public ParserService(Parser parser, int threads, int maxInFlight) {
+		this.parser = parser;
+		this.parser.getExecutable(); // compiled before the workers share it
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), (Runnable r) -> {
+					Thread t = new Thread(r, "parser-service-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/* Submission (blocks while maxInFlight documents are pending) */
+
+	public CompletableFuture<Tree<?>> parse(Source s) {
+		return this.submit(s, (Source in) -> {
+			Tree<?> t = this.parser.parse(in);
+			if (t == null) {
+				throw new IOException("syntax error: " + in.getResourceName());
+			}
+			return t;
+		});
+	}
+
+	public CompletableFuture<Integer> match(Source s) {
+		return this.submit(s, (Source in) -> this.parser.match(in));
+	}
+
+	/**
+	 * Parses every source and passes each result to sink, in completion
+	 * order. The returned future completes when all sources are done.
+	 */
+
+	public CompletableFuture<Void> parseAll(Iterator<? extends Source> sources, BiConsumer<Source, Tree<?>> sink) {
+		AtomicLong pending = new AtomicLong(1);
+		CompletableFuture<Void> all = new CompletableFuture<>();
+		while (sources.hasNext()) {
+			Source s = sources.next();
+			pending.incrementAndGet();
+			this.parse(s).whenComplete((Tree<?> t, Throwable e) -> {
+				if (e != null) {
+					all.completeExceptionally(e);
+				} else {
+					sink.accept(s, t);
+				}
+				if (pending.decrementAndGet() == 0) {
+					all.complete(null);
+				}
+			});
+		}
+		if (pending.decrementAndGet() == 0) {
+			all.complete(null);
+		}
+		return all;
+	}
+
+	interface Job<T> {
+		T apply(Source s) throws IOException;
+	}
+
+	private <T> CompletableFuture<T> submit(Source s, Job<T> job) {
+		CompletableFuture<T> f = new CompletableFuture<>();
+		try {
+			this.inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			f.completeExceptionally(e);
+			return f;
+		}
+		long t0 = System.nanoTime();
+		this.stats.begin(t0);
+		try {
+			this.executor.execute(() -> {
+				T result = null;
+				Throwable error = null;
+				try {
+					result = job.apply(s);
+				} catch (Throwable e) {
+					error = e;
+				}
+				this.stats.end(t0, s.length(), error != null);
+				this.inFlight.release();
+				if (error != null) {
+					f.completeExceptionally(error);
+				} else {
+					f.complete(result);
+				}
+			});
+		} catch (RuntimeException e) { // rejected after close()
+			this.inFlight.release();
+			f.completeExceptionally(e);
+		}
+		return f;
+	}
+
+	/* documents submitted and not yet completed */
+	public int pending() {
+		return this.maxInFlight - this.inFlight.availablePermits();
+	}
+
+	public Stats getStats() {
+		return this.stats;
+	}
+
+	/* waits for the submitted documents and stops the workers */
+	@Override
+	public void close() {
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stats counts documents and bytes, and keeps a histogram of latencies
+	 * in buckets of 1/8 of a power of two nanoseconds, so a percentile is
+	 * exact within 12.5%.
+	 */
+
+	public static class Stats {
+		private final LongAdder docs = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+		private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong lastEnd = new AtomicLong(0);
+
+		void begin(long t0) {
+			if (t0 < this.firstStart.get()) {
+				this.firstStart.accumulateAndGet(t0, Math::min);
+			}
+		}
+
+		void end(long t0, long length, boolean failed) {
+			long t1 = System.nanoTime();
+			this.docs.increment();
+			this.bytes.add(length);
+			if (failed) {
+				this.failures.increment();
+			}
+			this.buckets.incrementAndGet(bucket(t1 - t0));
+			this.lastEnd.accumulateAndGet(t1, Math::max);
+		}
+
+		static int bucket(long v) {
+			if (v < 8) {
+				return (int) Math.max(v, 0);
+			}
+			int msb = 63 - Long.numberOfLeadingZeros(v);
+			return ((msb - 2) << 3) | (int) ((v >>> (msb - 3)) & 7);
+		}
+
+		/* the largest value in the bucket */
+		static long upperBound(int b) {
+			if (b < 8) {
+				return b;
+			}
+			int shift = (b >>> 3) - 1;
+			return ((8L | (b & 7)) << shift) + (1L << shift) - 1;
+		}
+
+		public long documents() {
+			return this.docs.sum();
+		}
+
+		public long bytes() {
+			return this.bytes.sum();
+		}
+
+		public long failures() {
+			return this.failures.sum();
+		}
+
+		/* seconds from the first submission to the last completion */
+		public double elapsed() {
+			long d = this.lastEnd.get() - this.firstStart.get();
+			return d > 0 ? d / 1e9 : 0.0;
+		}
+
+		public double throughput() {
+			double s = this.elapsed();
+			return s > 0 ? this.documents() / s : 0.0;
+		}
+
+		/* latency in nanoseconds at the quantile q (0.0 .. 1.0) */
+		public long percentile(double q) {
+			long total = 0;
+			for (int b = 0; b < this.buckets.length(); b++) {
+				total += this.buckets.get(b);
+			}
+			long rank = (long) Math.ceil(q * total);
+			long c = 0;
+			for (int b = 0; b < this.buckets.length(); b++) {
+				c += this.buckets.get(b);
+				if (c >= rank && c > 0) {
+					return upperBound(b);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("docs=%d failures=%d %.1f[docs/s] %.2f[MiB/s] p50=%.1f[us] p99=%.1f[us]",
+					this.documents(), this.failures(), this.throughput(),
+					this.elapsed() > 0 ? this.bytes() / this.elapsed() / (1 << 20) : 0.0,
+					this.percentile(0.50) / 1000.0, this.percentile(0.99) / 1000.0);
+		}
+	}
+}
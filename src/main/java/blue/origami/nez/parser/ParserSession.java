@@ -0,0 +1,83 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import blue.origami.nez.ast.CommonTree;
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeSetFunc;
+
+/**
+ * ParserSession reuses one parser context (stacks and memo table) across
+ * many match/parse calls. Memo entries of the previous input are invalidated
+ * by a generation counter instead of being cleared. A session is not
+ * thread-safe; each thread should own its sessions.
+ *
+ * <pre>
+ * ParserSession session = parser.newSession();
+ * for (String line : lines) {
+ * 	Tree&lt;?&gt; t = session.parse(line);
+ * }
+ * </pre>
+ */
+
+public final class ParserSession {
+	private final ParserCode code;
+
+	ParserSession(ParserCode code) {
+		this.code = code;
+	}
+
+	public final Object parse(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException {
+		return this.code.parse(s, pos, newTree, linkTree);
+	}
+
+	public final long match(Source s, int pos) {
+		return this.code.match(s, pos, //
+				(Symbol tag, Source s0, int spos, int epos, int nsubs, Object value) -> null, //
+				(Object parent, int index, Symbol label, Object child) -> null);
+	}
+
+	public final long parseEach(Source s, Consumer<Tree<?>> f) throws IOException {
+		return this.code.parseEach(s, 0, Integer.MAX_VALUE, Parser.defaultTree, Parser.defaultTree,
+				(Object t) -> f.accept((Tree<?>) t));
+	}
+
+	/* wrapper */
+
+	public final int match(Source s) {
+		return (int) this.match(s, 0);
+	}
+
+	public final int match(String str) {
+		return this.match(ParserSource.newStringSource(str));
+	}
+
+	public final Tree<?> parse(Source sc) throws IOException {
+		return (CommonTree) this.parse(sc, 0, Parser.defaultTree, Parser.defaultTree);
+	}
+
+	public final Tree<?> parse(String str) throws IOException {
+		return this.parse(ParserSource.newStringSource(str));
+	}
+
+}
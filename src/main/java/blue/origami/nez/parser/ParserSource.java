@@ -49,7 +49,7 @@ public abstract class ParserSource implements Source {
 	// public abstract long linenum(long pos);
 
 	@Override
-	public final int column(long pos) {
+	public int column(long pos) {
 		int count = 0;
 		for (long p = pos - 1; p >= 0; p--) {
 			if (this.byteAt(p) == '\n') {
@@ -92,9 +92,15 @@ public abstract class ParserSource implements Source {
 				}
 			}
 		}
+		if (f.length() >= MmapThreshold) {
+			return new MmapSource(fileName);
+		}
 		return new FileSource(fileName);
 	}
 
+	/* files larger than this are memory-mapped */
+	public final static long MmapThreshold = 1L << 20;
+
 	public static Source newStringSource(String fileName, InputStream stream) throws IOException {
 		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
 		StringBuilder sb = new StringBuilder();
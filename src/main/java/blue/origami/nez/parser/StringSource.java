@@ -24,25 +24,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import blue.origami.nez.ast.Source;
 import blue.origami.util.OConsole;
 import blue.origami.util.OStringUtils;
 
-public class StringSource extends ParserSource {
+public class StringSource extends ParserSource implements ByteScanner.Scannable {
 	public final byte[] inputs;
 	long length;
+	private final ByteBuffer buffer; // a little-endian view of inputs, for ByteScanner
 
 	public StringSource(String sourceText) {
 		super("(string)", 1);
 		this.inputs = toZeroTerminalByteSequence(sourceText);
 		this.length = inputs.length - 1;
+		this.buffer = ByteBuffer.wrap(this.inputs).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
 	public StringSource(String resource, long linenum, String sourceText) {
 		super(resource, linenum);
 		this.inputs = toZeroTerminalByteSequence(sourceText);
 		this.length = inputs.length - 1;
+		this.buffer = ByteBuffer.wrap(this.inputs).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
 	public StringSource(String resource, long linenum, byte[] buffer, boolean nullChar) {
@@ -55,6 +60,7 @@ public class StringSource extends ParserSource {
 			System.arraycopy(buffer, 0, this.inputs, 0, buffer.length);
 		}
 		this.length = inputs.length - 1;
+		this.buffer = ByteBuffer.wrap(this.inputs).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
 	private final byte[] toZeroTerminalByteSequence(String s) {
@@ -92,6 +98,11 @@ public class StringSource extends ParserSource {
 		return true;
 	}
 
+	@Override
+	public final long scan(long pos, ByteScanner scanner) {
+		return scanner.scan(this.buffer, (int) pos, (int) this.length);
+	}
+
 	@Override
 	public final byte[] subBytes(long startIndex, long endIndex) {
 		byte[] b = new byte[(int) (endIndex - startIndex)];
@@ -111,8 +122,8 @@ public class StringSource extends ParserSource {
 
 	@Override
 	public Source subSource(long startIndex, long endIndex) {
-		byte[] b = new byte[(int) (endIndex - startIndex) + 1];
-		System.arraycopy(this.inputs, (int) (startIndex), b, 0, b.length);
+		byte[] b = new byte[(int) (endIndex - startIndex) + 1]; // zero-terminated
+		System.arraycopy(this.inputs, (int) (startIndex), b, 0, b.length - 1);
 		return new StringSource(this.getResourceName(), this.linenum(startIndex), b, true);
 	}
 
@@ -0,0 +1,50 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+/**
+ * Ialt, Pbyte and Isucc fused: jumps without pushing a failure frame if the
+ * byte does not match.
+ */
+
+@SuppressWarnings("serial")
+public final class Abyte extends PAsmInst {
+	public final int byteChar;
+	public final PAsmInst jump; // jump if failed
+
+	public Abyte(int byteChar, PAsmInst next, PAsmInst failjump) {
+		super(next);
+		this.byteChar = byteChar;
+		this.jump = failjump;
+	}
+
+	@Override
+	public PAsmInst[] branch() {
+		return new PAsmInst[] { this.jump };
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		if (getbyte(px) == this.byteChar) {
+			move(px, 1);
+			return this.next;
+		}
+		backtrack(px, px.pos);
+		return this.jump;
+	}
+
+}
@@ -0,0 +1,187 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.parser.ByteScanner;
+
+/**
+ * Runtime entry points for the parser classes generated by
+ * AsmParserCompiler. Every method is a small public static one so that the
+ * generated code stays monomorphic and the JIT can inline across productions.
+ */
+
+public class AsmParserAPI extends PAsmAPI {
+
+	public interface ParserFunc {
+		public boolean apply(PAsmContext px);
+	}
+
+	/* Context */
+
+	public static final int pos(PAsmContext px) {
+		return px.pos;
+	}
+
+	public static final Object tree(PAsmContext px) {
+		return px.tree;
+	}
+
+	public static final int log(PAsmContext px) {
+		return px.treeLog;
+	}
+
+	public static final State state(PAsmContext px) {
+		return px.state;
+	}
+
+	public static final void back(PAsmContext px, int pos, Object tree, int treeLog, State state) {
+		backtrack(px, pos);
+		px.tree = tree;
+		px.treeLog = unuseTreeLog(px, treeLog);
+		px.state = state;
+	}
+
+	public static final void backpos(PAsmContext px, int pos) {
+		px.pos = pos;
+	}
+
+	public static final void backtree(PAsmContext px, Object tree, int treeLog) {
+		px.tree = tree;
+		px.treeLog = unuseTreeLog(px, treeLog);
+	}
+
+	public static final void backstate(PAsmContext px, State state) {
+		px.state = state;
+	}
+
+	/* Byte matching */
+
+	public static final boolean pbyte(PAsmContext px, int byteChar) {
+		return nextbyte(px) == byteChar;
+	}
+
+	public static final boolean pset(PAsmContext px, int[] bits) {
+		return bitis(bits, nextbyte(px));
+	}
+
+	public static final boolean pany(PAsmContext px) {
+		if (neof(px)) {
+			return move(px, 1);
+		}
+		return false;
+	}
+
+	public static final boolean pstr(PAsmContext px, byte[] utf8) {
+		return matchBytes(px, utf8);
+	}
+
+	public static final boolean pis(PAsmContext px, int[] bits) {
+		return bitis(bits, getbyte(px));
+	}
+
+	public static final boolean pbis(PAsmContext px, int[] bits) {
+		int c = getbyte(px);
+		if (c == 0) {
+			return neof(px);
+		}
+		return bitis(bits, c);
+	}
+
+	public static final boolean peof(PAsmContext px) {
+		return !neof(px);
+	}
+
+	public static final boolean nstr(PAsmContext px, byte[] utf8) {
+		return !matchBytes(px, utf8);
+	}
+
+	public static final void obyte(PAsmContext px, int byteChar) {
+		if (getbyte(px) == byteChar) {
+			move(px, 1);
+		}
+	}
+
+	public static final void oset(PAsmContext px, int[] bits) {
+		if (bitis(bits, getbyte(px))) {
+			move(px, 1);
+		}
+	}
+
+	public static final void obin(PAsmContext px, int[] bits) {
+		int c = getbyte(px);
+		if (c == 0) {
+			if (neof(px)) {
+				move(px, 1);
+			}
+			return;
+		}
+		if (bitis(bits, c)) {
+			move(px, 1);
+		}
+	}
+
+	public static final void ostr(PAsmContext px, byte[] utf8) {
+		matchBytes(px, utf8);
+	}
+
+	public static final void rbyte(PAsmContext px, int byteChar) {
+		scan(px, ByteScanner.of(byteChar));
+	}
+
+	/* rset, rbin and rstr, compiled into one kernel */
+	public static final void rscan(PAsmContext px, ByteScanner scanner) {
+		scan(px, scanner);
+	}
+
+	public static final int dispatch(PAsmContext px, byte[] jumpIndex) {
+		return jumpIndex[getbyte(px)] & 0xff;
+	}
+
+	public static final int dfa(PAsmContext px, byte[] jumpIndex) {
+		return jumpIndex[nextbyte(px)] & 0xff;
+	}
+
+	/* Symbol */
+
+	public static final boolean symbol(PAsmContext px, SymbolFunc f, Symbol tag, int ppos) {
+		return f.apply(px, px.state, tag, ppos);
+	}
+
+	public static final boolean symbol(PAsmContext px, SymbolFunc f, Symbol tag) {
+		return f.apply(px, px.state, tag, px.pos);
+	}
+
+	public static final void trap(PAsmContext px, int trapid, int uid) {
+		px.trap(trapid, uid);
+	}
+
+	/* Constants passed to the static initializer of a generated class */
+
+	private static ConcurrentHashMap<String, Object[]> constMap = new ConcurrentHashMap<>();
+
+	static void setConstants(String cname, Object[] values) {
+		constMap.put(cname, values);
+	}
+
+	public static final Object[] constants(String cname) {
+		return constMap.remove(cname);
+	}
+
+}
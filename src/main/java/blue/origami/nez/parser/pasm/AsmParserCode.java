@@ -0,0 +1,55 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.util.function.LongSupplier;
+
+import blue.origami.nez.parser.ParserGrammar;
+import blue.origami.nez.parser.pasm.AsmParserAPI.ParserFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.PAsmContext;
+import blue.origami.nez.parser.pasm.PAsmAPI.State;
+import blue.origami.util.OOption;
+
+public class AsmParserCode extends PAsmCode {
+
+	private final ParserFunc start;
+
+	AsmParserCode(ParserGrammar grammar, OOption options, ParserFunc start) {
+		super(grammar, options);
+		this.start = start;
+	}
+
+	/* backtrack positions are held in local variables, not on the stack */
+	@Override
+	protected LongSupplier watermark(PAsmContext px) {
+		return null;
+	}
+
+	@Override
+	protected boolean exec(PAsmContext px) {
+		int pos = px.pos;
+		Object tree = px.tree;
+		int treeLog = px.treeLog;
+		State state = px.state;
+		if (this.start.apply(px)) {
+			return true;
+		}
+		AsmParserAPI.back(px, pos, tree, treeLog, state);
+		return false;
+	}
+
+}
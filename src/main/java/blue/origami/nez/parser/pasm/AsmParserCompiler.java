@@ -0,0 +1,948 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.commons.TableSwitchGenerator;
+
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.parser.ByteScanner;
+import blue.origami.nez.parser.ParserCode;
+import blue.origami.nez.parser.ParserCompiler;
+import blue.origami.nez.parser.ParserGrammar;
+import blue.origami.nez.parser.ParserGrammar.MemoPoint;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.pasm.AsmParserAPI.ParserFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.NezParserContext;
+import blue.origami.nez.parser.pasm.PAsmAPI.PAsmContext;
+import blue.origami.nez.parser.pasm.PAsmAPI.State;
+import blue.origami.nez.parser.pasm.PAsmAPI.SymbolDefFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.SymbolFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.SymbolResetFunc;
+import blue.origami.nez.peg.Expression;
+import blue.origami.nez.peg.ExpressionVisitor;
+import blue.origami.nez.peg.Production;
+import blue.origami.nez.peg.Typestate;
+import blue.origami.nez.peg.expression.ByteSet;
+import blue.origami.nez.peg.expression.PAnd;
+import blue.origami.nez.peg.expression.PAny;
+import blue.origami.nez.peg.expression.PByte;
+import blue.origami.nez.peg.expression.PByteSet;
+import blue.origami.nez.peg.expression.PChoice;
+import blue.origami.nez.peg.expression.PDetree;
+import blue.origami.nez.peg.expression.PDispatch;
+import blue.origami.nez.peg.expression.PEmpty;
+import blue.origami.nez.peg.expression.PFail;
+import blue.origami.nez.peg.expression.PIf;
+import blue.origami.nez.peg.expression.PLinkTree;
+import blue.origami.nez.peg.expression.PMany;
+import blue.origami.nez.peg.expression.PNonTerminal;
+import blue.origami.nez.peg.expression.PNot;
+import blue.origami.nez.peg.expression.POn;
+import blue.origami.nez.peg.expression.POption;
+import blue.origami.nez.peg.expression.PPair;
+import blue.origami.nez.peg.expression.PSymbolAction;
+import blue.origami.nez.peg.expression.PSymbolPredicate;
+import blue.origami.nez.peg.expression.PSymbolScope;
+import blue.origami.nez.peg.expression.PTag;
+import blue.origami.nez.peg.expression.PTrap;
+import blue.origami.nez.peg.expression.PTree;
+import blue.origami.nez.peg.expression.PValue;
+import blue.origami.util.ODebug;
+import blue.origami.util.OOption;
+
+/**
+ * AsmParserCompiler translates each production into a static method of a
+ * generated JVM class instead of a graph of PAsmInst objects. The generated
+ * code shares PAsmContext, memo tables and tree construction with PAsmCode,
+ * so both compilers return the same match/parse results.
+ */
+
+public class AsmParserCompiler implements ParserCompiler, Opcodes {
+
+	public AsmParserCompiler() {
+
+	}
+
+	@Override
+	public ParserCompiler clone() {
+		return new AsmParserCompiler();
+	}
+
+	// Local Option
+	OOption options = null;
+
+	@Override
+	public void init(OOption options) {
+		this.options = options;
+	}
+
+	@Override
+	public ParserCode compile(ParserGrammar grammar) {
+		try {
+			return new ClassGenerator(grammar, this.options).generate();
+		} catch (RuntimeException | ReflectiveOperationException e) {
+			// e.g., Method code too large!
+			ODebug.traceException(e);
+			this.options.verbose("bytecode compilation failed: %s; using PAsm instead", e);
+			PAsmCompiler compl = new PAsmCompiler();
+			compl.init(this.options);
+			return compl.compile(grammar);
+		}
+	}
+
+	private static AtomicInteger seq = new AtomicInteger(0);
+
+	static class ParserClassLoader extends ClassLoader {
+		ParserClassLoader() {
+			super(AsmParserCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(String cname, byte[] byteCode) {
+			return this.defineClass(cname, byteCode, 0, byteCode.length);
+		}
+	}
+
+	/* Types */
+
+	final static Type ApiType = Type.getType(AsmParserAPI.class);
+	final static Type ContextType = Type.getType(PAsmContext.class);
+	final static Type BaseContextType = Type.getType(NezParserContext.class);
+	final static Type TreeLogType = Type.INT_TYPE; // an index into the tree log
+	final static Type StateType = Type.getType(State.class);
+	final static Type ObjectType = Type.getType(Object.class);
+	final static Type ObjectArrayType = Type.getType(Object[].class);
+	final static Type StringType = Type.getType(String.class);
+	final static Type SymbolType = Type.getType(Symbol.class);
+	final static Type MemoPointType = Type.getType(MemoPoint.class);
+	final static Type SymbolFuncType = Type.getType(SymbolFunc.class);
+	final static Type IntArrayType = Type.getType(int[].class);
+	final static Type ByteArrayType = Type.getType(byte[].class);
+	final static Type ByteScannerType = Type.getType(ByteScanner.class);
+	final static Method ProductionMethod = new Method("p", Type.BOOLEAN_TYPE, new Type[] { ContextType });
+
+	/* Expressions larger than this are emitted as separate methods */
+	final static int SplitSize = 48;
+
+	class ClassGenerator extends ExpressionVisitor<Void, Label> {
+		final ParserGrammar grammar;
+		final String cname;
+		final ClassWriter cw;
+		final boolean TreeConstruction;
+		final boolean binaryGrammar;
+		final boolean Optimization = true;
+
+		private HashMap<String, String> methodMap = new HashMap<>();
+		private ArrayList<Object[]> pendingList = new ArrayList<>();
+		private int methods = 0;
+
+		private GeneratorAdapter mw;
+
+		ClassGenerator(ParserGrammar grammar, OOption options) {
+			this.grammar = grammar;
+			this.cname = "PAsm$" + seq.getAndIncrement();
+			this.TreeConstruction = options.is(ParserOption.TreeConstruction, true);
+			this.binaryGrammar = grammar.isBinaryGrammar();
+			this.cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		}
+
+		AsmParserCode generate() throws ReflectiveOperationException {
+			this.cw.visit(V1_8, ACC_PUBLIC + ACC_FINAL, this.cname, null, "java/lang/Object",
+					new String[] { Type.getInternalName(ParserFunc.class) });
+			this.cw.visitSource(this.grammar.getName(), null);
+			String start = null;
+			for (Production p : this.grammar) {
+				String uname = p.getUniqueName();
+				this.methodMap.put(uname, "p" + this.methodMap.size());
+				if (start == null) {
+					start = uname;
+				}
+			}
+			for (Production p : this.grammar) {
+				String uname = p.getUniqueName();
+				this.genProduction(this.methodMap.get(uname), this.grammar.getMemoPoint(uname), p.getExpression());
+			}
+			while (this.pendingList.size() > 0) {
+				Object[] pending = this.pendingList.remove(this.pendingList.size() - 1);
+				this.genProduction((String) pending[0], null, (Expression) pending[1]);
+			}
+			this.genConstructor();
+			this.genApply(this.methodMap.get(start));
+			this.genConstants();
+			this.cw.visitEnd();
+			byte[] byteCode = this.cw.toByteArray();
+			AsmParserCompiler.this.options.verbose("Generated: %s methods=%d size=%d", this.cname, this.methods,
+					byteCode.length);
+			AsmParserAPI.setConstants(this.cname, this.constList.toArray());
+			Class<?> c = new ParserClassLoader().define(this.cname, byteCode);
+			ParserFunc f = (ParserFunc) c.getDeclaredConstructor().newInstance();
+			return new AsmParserCode(this.grammar, AsmParserCompiler.this.options, f);
+		}
+
+		private void genConstructor() {
+			Method m = Method.getMethod("void <init>()");
+			GeneratorAdapter mw = new GeneratorAdapter(ACC_PUBLIC, m, null, null, this.cw);
+			mw.loadThis();
+			mw.invokeConstructor(ObjectType, m);
+			mw.returnValue();
+			mw.endMethod();
+		}
+
+		private void genApply(String start) {
+			Method m = new Method("apply", Type.BOOLEAN_TYPE, new Type[] { ContextType });
+			GeneratorAdapter mw = new GeneratorAdapter(ACC_PUBLIC, m, null, null, this.cw);
+			mw.loadArg(0);
+			mw.invokeStatic(Type.getObjectType(this.cname), this.production(start));
+			mw.returnValue();
+			mw.endMethod();
+		}
+
+		private Method production(String name) {
+			return new Method(name, ProductionMethod.getReturnType(), ProductionMethod.getArgumentTypes());
+		}
+
+		/* Constants */
+
+		private ArrayList<Object> constList = new ArrayList<>();
+		private ArrayList<Type> constTypeList = new ArrayList<>();
+		private IdentityHashMap<Object, String> constMap = new IdentityHashMap<>();
+
+		private void loadConst(Object value, Type t) {
+			String name = this.constMap.get(value);
+			if (name == null) {
+				name = "c" + this.constList.size();
+				this.constMap.put(value, name);
+				this.constList.add(value);
+				this.constTypeList.add(t);
+				this.cw.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, name, t.getDescriptor(), null, null)
+						.visitEnd();
+			}
+			this.mw.getStatic(Type.getObjectType(this.cname), name, t);
+		}
+
+		private void genConstants() {
+			if (this.constList.size() == 0) {
+				return;
+			}
+			Method m = Method.getMethod("void <clinit>()");
+			GeneratorAdapter mw = new GeneratorAdapter(ACC_STATIC, m, null, null, this.cw);
+			int values = mw.newLocal(ObjectArrayType);
+			mw.push(this.cname);
+			mw.invokeStatic(ApiType, new Method("constants", ObjectArrayType, new Type[] { StringType }));
+			mw.storeLocal(values);
+			for (int i = 0; i < this.constList.size(); i++) {
+				Type t = this.constTypeList.get(i);
+				mw.loadLocal(values);
+				mw.push(i);
+				mw.arrayLoad(ObjectType);
+				mw.checkCast(t);
+				mw.putStatic(Type.getObjectType(this.cname), this.constMap.get(this.constList.get(i)), t);
+			}
+			mw.returnValue();
+			mw.endMethod();
+		}
+
+		/* Methods */
+
+		private void genProduction(String name, MemoPoint memoPoint, Expression e) {
+			this.methods++;
+			this.mw = new GeneratorAdapter(ACC_STATIC, this.production(name), null, null, this.cw);
+			Label fail = this.mw.newLabel();
+			if (memoPoint == null) {
+				this.compile(e, fail);
+				this.mw.push(true);
+				this.mw.returnValue();
+				this.mw.mark(fail);
+				this.mw.push(false);
+				this.mw.returnValue();
+			} else {
+				int pos = this.savePos();
+				Label unfound = this.mw.newLabel();
+				Label found = this.mw.newLabel();
+				this.mw.loadArg(0);
+				this.loadConst(memoPoint, MemoPointType);
+				if (memoPoint.typeState == Typestate.Unit) {
+					this.callBase("lookupMemo1", Type.INT_TYPE, MemoPointType);
+				} else {
+					this.callBase("lookupMemo3", Type.INT_TYPE, MemoPointType);
+				}
+				this.mw.dup();
+				this.mw.ifZCmp(GeneratorAdapter.EQ, unfound);
+				this.mw.push(PAsmAPI.SuccFound);
+				this.mw.ifICmp(GeneratorAdapter.EQ, found);
+				this.mw.push(false);
+				this.mw.returnValue();
+				this.mw.mark(found);
+				this.mw.push(true);
+				this.mw.returnValue();
+				this.mw.mark(unfound);
+				this.mw.pop();
+				this.compile(e, fail);
+				this.storeMemo(memoPoint, pos, true);
+				this.mw.push(true);
+				this.mw.returnValue();
+				this.mw.mark(fail);
+				this.storeMemo(memoPoint, pos, false);
+				this.mw.push(false);
+				this.mw.returnValue();
+			}
+			this.mw.endMethod();
+		}
+
+		private void storeMemo(MemoPoint memoPoint, int pos, boolean matched) {
+			this.mw.loadArg(0);
+			this.loadConst(memoPoint, MemoPointType);
+			this.mw.loadLocal(pos);
+			this.mw.push(matched);
+			this.callBase("storeMemo", Type.BOOLEAN_TYPE, MemoPointType, Type.INT_TYPE, Type.BOOLEAN_TYPE);
+			this.mw.pop();
+		}
+
+		/* code generation utilities */
+
+		private void callApi(String name, Type ret, Type... params) {
+			Type[] t = new Type[params.length + 1];
+			t[0] = ContextType;
+			System.arraycopy(params, 0, t, 1, params.length);
+			this.mw.invokeStatic(ApiType, new Method(name, ret, t));
+		}
+
+		private void callBase(String name, Type ret, Type... params) {
+			Type[] t = new Type[params.length + 1];
+			t[0] = BaseContextType;
+			System.arraycopy(params, 0, t, 1, params.length);
+			this.mw.invokeStatic(ApiType, new Method(name, ret, t));
+		}
+
+		private void test(String name, Label fail) {
+			this.mw.loadArg(0);
+			this.callApi(name, Type.BOOLEAN_TYPE);
+			this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+		}
+
+		private void test(String name, int n, Label fail) {
+			this.mw.loadArg(0);
+			this.mw.push(n);
+			this.callApi(name, Type.BOOLEAN_TYPE, Type.INT_TYPE);
+			this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+		}
+
+		private void test(String name, Object value, Type t, Label fail) {
+			this.mw.loadArg(0);
+			this.loadConst(value, t);
+			this.callApi(name, Type.BOOLEAN_TYPE, t);
+			this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+		}
+
+		private void exec(String name, int n) {
+			this.mw.loadArg(0);
+			this.mw.push(n);
+			this.callApi(name, Type.VOID_TYPE, Type.INT_TYPE);
+		}
+
+		private void exec(String name, Object value, Type t) {
+			this.mw.loadArg(0);
+			this.loadConst(value, t);
+			this.callApi(name, Type.VOID_TYPE, t);
+		}
+
+		private int savePos() {
+			int pos = this.mw.newLocal(Type.INT_TYPE);
+			this.mw.loadArg(0);
+			this.callApi("pos", Type.INT_TYPE);
+			this.mw.storeLocal(pos);
+			return pos;
+		}
+
+		private int save(String name, Type t) {
+			int local = this.mw.newLocal(t);
+			this.mw.loadArg(0);
+			this.callApi(name, t);
+			this.mw.storeLocal(local);
+			return local;
+		}
+
+		private int[] saveAll() {
+			int[] locals = new int[4];
+			locals[0] = this.savePos();
+			locals[1] = this.save("tree", ObjectType);
+			locals[2] = this.save("log", TreeLogType);
+			locals[3] = this.save("state", StateType);
+			return locals;
+		}
+
+		private void storeAll(int[] locals) {
+			this.mw.loadArg(0);
+			this.callApi("pos", Type.INT_TYPE);
+			this.mw.storeLocal(locals[0]);
+			this.mw.loadArg(0);
+			this.callApi("tree", ObjectType);
+			this.mw.storeLocal(locals[1]);
+			this.mw.loadArg(0);
+			this.callApi("log", TreeLogType);
+			this.mw.storeLocal(locals[2]);
+			this.mw.loadArg(0);
+			this.callApi("state", StateType);
+			this.mw.storeLocal(locals[3]);
+		}
+
+		private void backAll(int[] locals) {
+			this.mw.loadArg(0);
+			this.mw.loadLocal(locals[0]);
+			this.mw.loadLocal(locals[1]);
+			this.mw.loadLocal(locals[2]);
+			this.mw.loadLocal(locals[3]);
+			this.callApi("back", Type.VOID_TYPE, Type.INT_TYPE, ObjectType, TreeLogType, StateType);
+		}
+
+		/* encoding */
+
+		private void compile(Expression e, Label fail) {
+			e.visit(this, fail);
+		}
+
+		private void compileBranch(Expression e, Label fail) {
+			if (this.size(e, 0) > SplitSize) {
+				String name = "e" + this.pendingList.size() + "$" + this.methods;
+				this.pendingList.add(new Object[] { name, e });
+				this.mw.loadArg(0);
+				this.mw.invokeStatic(Type.getObjectType(this.cname), this.production(name));
+				this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+				return;
+			}
+			this.compile(e, fail);
+		}
+
+		private int size(Expression e, int size) {
+			if (size > SplitSize || e instanceof PNonTerminal) {
+				return size + 1;
+			}
+			size++;
+			for (Expression sub : e) {
+				size = this.size(sub, size);
+			}
+			return size;
+		}
+
+		@Override
+		public Void visitEmpty(PEmpty p, Label fail) {
+			return null;
+		}
+
+		@Override
+		public Void visitFail(PFail p, Label fail) {
+			this.mw.goTo(fail);
+			return null;
+		}
+
+		@Override
+		public Void visitByte(PByte p, Label fail) {
+			if (p.byteChar() == 0) {
+				this.mw.loadArg(0);
+				this.callBase("neof", Type.BOOLEAN_TYPE);
+				this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+			}
+			this.test("pbyte", p.byteChar(), fail);
+			return null;
+		}
+
+		@Override
+		public Void visitByteSet(PByteSet p, Label fail) {
+			int[] b = this.bools(p.byteSet());
+			if (PAsmAPI.bitis(b, 0)) {
+				this.mw.loadArg(0);
+				this.callBase("neof", Type.BOOLEAN_TYPE);
+				this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+			}
+			this.test("pset", b, IntArrayType, fail);
+			return null;
+		}
+
+		@Override
+		public Void visitAny(PAny p, Label fail) {
+			this.test("pany", fail);
+			return null;
+		}
+
+		@Override
+		public Void visitNonTerminal(PNonTerminal n, Label fail) {
+			String name = this.methodMap.get(n.getProduction().getUniqueName());
+			this.mw.loadArg(0);
+			this.mw.invokeStatic(Type.getObjectType(this.cname), this.production(name));
+			this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+			return null;
+		}
+
+		/* conversion */
+
+		HashMap<String, int[]> boolsMap = new HashMap<>();
+
+		int[] bools(ByteSet bs) {
+			String key = bs.toString();
+			int[] b = this.boolsMap.get(key);
+			if (b == null) {
+				b = bs.bits();
+				this.boolsMap.put(key, b);
+			}
+			return b;
+		}
+
+		/* one kernel (and one constant) per shared bits array */
+		IdentityHashMap<int[], ByteScanner> scannerMap = new IdentityHashMap<>();
+
+		ByteScanner scanner(int[] b) {
+			ByteScanner s = this.scannerMap.get(b);
+			if (s == null) {
+				s = ByteScanner.of(b);
+				this.scannerMap.put(b, s);
+			}
+			return s;
+		}
+
+		private int byteChar(Expression e) {
+			if (e instanceof PByte) {
+				return ((PByte) e).byteChar();
+			}
+			if (e instanceof PByteSet) {
+				return ((PByteSet) e).byteSet().getUnsignedByte();
+			}
+			return -1;
+		}
+
+		private ByteSet anyByteSet = null;
+
+		private ByteSet toByteSet(Expression e) {
+			if (e instanceof PByte) {
+				return ((PByte) e).byteSet();
+			}
+			if (e instanceof PByteSet) {
+				return ((PByteSet) e).byteSet();
+			}
+			if (e instanceof PAny) {
+				if (this.anyByteSet == null) {
+					this.anyByteSet = new ByteSet(this.binaryGrammar ? 0 : 1, 255);
+				}
+				return this.anyByteSet;
+			}
+			return null;
+		}
+
+		private int[] bools(Expression e) {
+			ByteSet bs = this.toByteSet(e);
+			if (bs != null) {
+				return this.bools(bs);
+			}
+			return null;
+		}
+
+		private byte[] toMultiChar(Expression e) {
+			ArrayList<Integer> l = new ArrayList<>();
+			Expression.extractMultiBytes(e, l);
+			return Expression.toMultiBytes(l);
+		}
+
+		private Expression getInnerExpression(Expression p) {
+			return Expression.deref(p.get(0));
+		}
+
+		@Override
+		public Void visitOption(POption p, Label fail) {
+			if (this.Optimization) {
+				Expression inner = this.getInnerExpression(p);
+				int byteChar = this.byteChar(inner);
+				if (byteChar > 0) {
+					this.exec("obyte", byteChar);
+					return null;
+				}
+				int[] b = this.bools(inner);
+				if (b != null) {
+					this.exec(PAsmAPI.bitis(b, 0) ? "obin" : "oset", b, IntArrayType);
+					return null;
+				}
+				if (Expression.isMultiBytes(inner)) {
+					this.exec("ostr", this.toMultiChar(inner), ByteArrayType);
+					return null;
+				}
+			}
+			Label unmatched = this.mw.newLabel();
+			Label end = this.mw.newLabel();
+			int[] locals = this.saveAll();
+			this.compileBranch(p.get(0), unmatched);
+			this.mw.goTo(end);
+			this.mw.mark(unmatched);
+			this.backAll(locals);
+			this.mw.mark(end);
+			return null;
+		}
+
+		@Override
+		public Void visitMany(PMany p, Label fail) {
+			if (p.isOneMore()) {
+				this.compile(p.get(0), fail);
+			}
+			if (this.Optimization) {
+				Expression inner = this.getInnerExpression(p);
+				int byteChar = this.byteChar(inner);
+				if (byteChar > 0) {
+					this.exec("rbyte", byteChar);
+					return null;
+				}
+				int[] b = this.bools(inner);
+				if (b != null) {
+					this.exec("rscan", this.scanner(b), ByteScannerType);
+					return null;
+				}
+				if (Expression.isMultiBytes(inner)) {
+					byte[] utf8 = this.toMultiChar(inner);
+					this.exec("rscan", ByteScanner.of(utf8), ByteScannerType);
+					return null;
+				}
+			}
+			Label loop = this.mw.newLabel();
+			Label exit = this.mw.newLabel();
+			int[] locals = this.saveAll();
+			this.mw.mark(loop);
+			this.compileBranch(p.get(0), exit);
+			this.mw.loadArg(0);
+			this.callApi("pos", Type.INT_TYPE);
+			this.mw.loadLocal(locals[0]);
+			this.mw.ifICmp(GeneratorAdapter.EQ, exit);
+			this.storeAll(locals);
+			this.mw.goTo(loop);
+			this.mw.mark(exit);
+			this.backAll(locals);
+			return null;
+		}
+
+		@Override
+		public Void visitAnd(PAnd p, Label fail) {
+			if (this.Optimization) {
+				Expression inner = this.getInnerExpression(p);
+				ByteSet bs = this.toByteSet(inner);
+				if (bs != null) {
+					this.test(bs.is(0) ? "pbis" : "pis", this.bools(bs), IntArrayType, fail);
+					return null;
+				}
+			}
+			int pos = this.savePos();
+			this.compileBranch(p.get(0), fail);
+			this.mw.loadArg(0);
+			this.mw.loadLocal(pos);
+			this.callApi("backpos", Type.VOID_TYPE, Type.INT_TYPE);
+			return null;
+		}
+
+		@Override
+		public Void visitNot(PNot p, Label fail) {
+			if (this.Optimization) {
+				Expression inner = this.getInnerExpression(p);
+				if (inner instanceof PAny) {
+					this.test("peof", fail);
+					return null;
+				}
+				ByteSet bs = this.toByteSet(inner);
+				if (bs != null) {
+					bs = bs.not(this.binaryGrammar);
+					this.test(bs.is(0) ? "pbis" : "pis", this.bools(bs), IntArrayType, fail);
+					return null;
+				}
+				if (Expression.isMultiBytes(inner)) {
+					this.test("nstr", this.toMultiChar(inner), ByteArrayType, fail);
+					return null;
+				}
+			}
+			Label unmatched = this.mw.newLabel();
+			int[] locals = this.saveAll();
+			this.compileBranch(p.get(0), unmatched);
+			this.mw.goTo(fail);
+			this.mw.mark(unmatched);
+			this.backAll(locals);
+			return null;
+		}
+
+		@Override
+		public Void visitPair(PPair p, Label fail) {
+			if (this.Optimization) {
+				ArrayList<Integer> l = new ArrayList<>();
+				Expression remain = Expression.extractMultiBytes(p, l);
+				if (l.size() > 2) {
+					this.test("pstr", Expression.toMultiBytes(l), ByteArrayType, fail);
+					this.compile(remain, fail);
+					return null;
+				}
+			}
+			for (Expression e : p) {
+				this.compile(e, fail);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitChoice(PChoice p, Label fail) {
+			Label end = this.mw.newLabel();
+			int[] locals = this.saveAll();
+			for (int i = 0; i < p.size() - 1; i++) {
+				Label next = this.mw.newLabel();
+				this.compileBranch(p.get(i), next);
+				this.mw.goTo(end);
+				this.mw.mark(next);
+				this.backAll(locals);
+			}
+			this.compileBranch(p.get(p.size() - 1), fail);
+			this.mw.mark(end);
+			return null;
+		}
+
+		@Override
+		public Void visitDispatch(PDispatch p, Label fail) {
+			final boolean dfa = this.isAllD(p);
+			final Label end = this.mw.newLabel();
+			final Label failed = fail;
+			this.mw.loadArg(0);
+			this.loadConst(p.indexMap, ByteArrayType);
+			this.callApi(dfa ? "dfa" : "dispatch", Type.INT_TYPE, ByteArrayType);
+			int[] keys = new int[p.size()];
+			for (int i = 0; i < p.size(); i++) {
+				keys[i] = i + 1;
+			}
+			this.mw.tableSwitch(keys, new TableSwitchGenerator() {
+				@Override
+				public void generateCase(int key, Label ignored) {
+					Expression e = p.get(key - 1);
+					ClassGenerator.this.compileBranch(dfa ? ClassGenerator.this.nextD(e) : e, failed);
+					ClassGenerator.this.mw.goTo(end);
+				}
+
+				@Override
+				public void generateDefault() {
+					ClassGenerator.this.mw.goTo(failed);
+				}
+			});
+			this.mw.mark(end);
+			return null;
+		}
+
+		private boolean isAllD(PDispatch p) {
+			for (int i = 0; i < p.size(); i++) {
+				if (!this.isD(p.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isD(Expression e) {
+			if (e instanceof PPair) {
+				if (e.get(0) instanceof PAny) {
+					return true;
+				}
+				return false;
+			}
+			return (e instanceof PAny);
+		}
+
+		private Expression nextD(Expression e) {
+			if (e instanceof PPair) {
+				return e.get(1);
+			}
+			return Expression.defaultEmpty;
+		}
+
+		/* Tree */
+
+		@Override
+		public Void visitTree(PTree p, Label fail) {
+			if (this.TreeConstruction) {
+				this.mw.loadArg(0);
+				if (p.folding) {
+					this.mw.push(p.beginShift);
+					this.loadSymbol(p.label);
+					this.callBase("foldTree", Type.BOOLEAN_TYPE, Type.INT_TYPE, SymbolType);
+				} else {
+					this.mw.push(p.beginShift);
+					this.callBase("beginTree", Type.BOOLEAN_TYPE, Type.INT_TYPE);
+				}
+				this.mw.pop();
+				this.compile(p.get(0), fail);
+				this.mw.loadArg(0);
+				this.mw.push(p.endShift);
+				this.loadSymbol(p.tag);
+				if (p.value == null) {
+					this.mw.visitInsn(ACONST_NULL);
+				} else {
+					this.mw.push(p.value);
+				}
+				this.callBase("endTree", Type.BOOLEAN_TYPE, Type.INT_TYPE, SymbolType, ObjectType);
+				this.mw.pop();
+				return null;
+			}
+			this.compile(p.get(0), fail);
+			return null;
+		}
+
+		private void loadSymbol(Symbol s) {
+			if (s == null) {
+				this.mw.visitInsn(ACONST_NULL);
+			} else {
+				this.loadConst(s, SymbolType);
+			}
+		}
+
+		@Override
+		public Void visitTag(PTag p, Label fail) {
+			if (this.TreeConstruction) {
+				this.mw.loadArg(0);
+				this.loadSymbol(p.tag);
+				this.callBase("tagTree", Type.BOOLEAN_TYPE, SymbolType);
+				this.mw.pop();
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitValue(PValue p, Label fail) {
+			if (this.TreeConstruction) {
+				this.mw.loadArg(0);
+				this.mw.push(p.value);
+				this.callBase("valueTree", Type.BOOLEAN_TYPE, ObjectType);
+				this.mw.pop();
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitLinkTree(PLinkTree p, Label fail) {
+			if (this.TreeConstruction) {
+				int tree = this.save("tree", ObjectType);
+				int log = this.save("log", TreeLogType);
+				this.compileBranch(p.get(0), fail);
+				this.mw.loadArg(0);
+				this.mw.loadLocal(log);
+				this.loadSymbol(p.label);
+				this.mw.loadLocal(tree);
+				this.callBase("backLink", Type.BOOLEAN_TYPE, TreeLogType, SymbolType, ObjectType);
+				this.mw.pop();
+				return null;
+			}
+			this.compile(p.get(0), fail);
+			return null;
+		}
+
+		@Override
+		public Void visitDetree(PDetree p, Label fail) {
+			if (this.TreeConstruction) {
+				int tree = this.save("tree", ObjectType);
+				int log = this.save("log", TreeLogType);
+				this.compileBranch(p.get(0), fail);
+				this.mw.loadArg(0);
+				this.mw.loadLocal(tree);
+				this.mw.loadLocal(log);
+				this.callApi("backtree", Type.VOID_TYPE, ObjectType, TreeLogType);
+				return null;
+			}
+			this.compile(p.get(0), fail);
+			return null;
+		}
+
+		/* Symbol */
+
+		private void symbol(SymbolFunc f, Symbol label, int pos) {
+			this.mw.loadArg(0);
+			this.loadConst(f, SymbolFuncType);
+			this.loadSymbol(label);
+			if (pos == -1) {
+				this.callApi("symbol", Type.BOOLEAN_TYPE, SymbolFuncType, SymbolType);
+			} else {
+				this.mw.loadLocal(pos);
+				this.callApi("symbol", Type.BOOLEAN_TYPE, SymbolFuncType, SymbolType, Type.INT_TYPE);
+			}
+		}
+
+		@Override
+		public Void visitSymbolScope(PSymbolScope p, Label fail) {
+			int state = this.save("state", StateType);
+			if (p.label != null) {
+				this.symbol(new SymbolResetFunc(), p.label, -1);
+				this.mw.pop();
+			}
+			this.compileBranch(p.get(0), fail);
+			this.mw.loadArg(0);
+			this.mw.loadLocal(state);
+			this.callApi("backstate", Type.VOID_TYPE, StateType);
+			return null;
+		}
+
+		@Override
+		public Void visitSymbolAction(PSymbolAction p, Label fail) {
+			int pos = this.savePos();
+			this.compileBranch(p.get(0), fail);
+			this.symbol(new SymbolDefFunc(), p.label, pos);
+			this.mw.pop();
+			return null;
+		}
+
+		@Override
+		public Void visitSymbolPredicate(PSymbolPredicate p, Label fail) {
+			if (p.isAndPredicate()) {
+				int pos = this.savePos();
+				this.compileBranch(p.get(0), fail);
+				this.symbol(p.pred, p.label, pos);
+			} else {
+				this.symbol(p.pred, p.label, -1);
+			}
+			this.mw.ifZCmp(GeneratorAdapter.EQ, fail);
+			return null;
+		}
+
+		@Override
+		public Void visitTrap(PTrap p, Label fail) {
+			if (p.trapid != -1) {
+				this.mw.loadArg(0);
+				this.mw.push(p.trapid);
+				this.mw.push(p.uid);
+				this.callApi("trap", Type.VOID_TYPE, Type.INT_TYPE, Type.INT_TYPE);
+			}
+			return null;
+		}
+
+		// Unused
+
+		@Override
+		public Void visitIf(PIf e, Label fail) {
+			AsmParserCompiler.this.options.verbose("unremoved if condition", e);
+			return null;
+		}
+
+		@Override
+		public Void visitOn(POn e, Label fail) {
+			AsmParserCompiler.this.options.verbose("unremoved on condition", e);
+			this.compile(e.get(0), fail);
+			return null;
+		}
+	}
+
+}
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Ialt extends PAsmInst {
 	public final PAsmInst jump; // jump if failed
 
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public class Icall extends PAsmInst {
 	public PAsmInst jump = null;
 	public String uname;
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Idfa extends PAsmInst {
 	public final byte[] jumpIndex;
 	public final PAsmInst[] jumpTable;
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Iexit extends PAsmInst {
 	public final boolean status;
 
@@ -26,6 +27,7 @@ public final class Iexit extends PAsmInst {
 
 	@Override
 	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
-		throw new PAsmTerminationException(this.status);
+		px.status = this.status;
+		return null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser.pasm;
+
+/**
+ * Ialt guarded by the first bytes of its alternative: jumps without pushing a
+ * failure frame if the next bytes cannot start the alternative. first[i] is
+ * the set of bytes at pos + i, or null if any byte may appear there.
+ *
+ * The alternative may push a failure frame of its own at pos + choiceAt;
+ * failing after that point, it backtracks past pos and moves the error
+ * position. A mismatch at or beyond choiceAt therefore runs the alternative,
+ * so that error messages are the same as without guards.
+ */
+
+@SuppressWarnings("serial")
+public final class Ifirst extends PAsmInst {
+	public final int[][] first;
+	public final int choiceAt;
+	public final PAsmInst jump; // jump if failed
+
+	public Ifirst(int[][] first, int choiceAt, PAsmInst next, PAsmInst failjump) {
+		super(next);
+		this.first = first;
+		this.choiceAt = choiceAt;
+		this.jump = failjump;
+	}
+
+	@Override
+	public PAsmInst[] branch() {
+		return new PAsmInst[] { this.jump };
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		for (int i = 0; i < this.first.length; i++) {
+			if (this.first[i] != null && !bitis(this.first[i], peekbyte(px, i))) {
+				if (i >= this.choiceAt) {
+					break;
+				}
+				backtrack(px, px.pos); // as the failure frame would
+				return this.jump;
+			}
+		}
+		pushFail(px, this.jump);
+		return this.next;
+	}
+
+}
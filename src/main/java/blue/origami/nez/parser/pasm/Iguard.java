@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Iguard extends PAsmInst {
 	public Iguard() {
 		super(null);
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Isucc extends PAsmInst {
 	public Isucc(PAsmInst next) {
 		super(next);
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Itrap extends PAsmInst {
 	public final int type;
 	public final int uid;
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Iupdate extends PAsmInst {
 	public Iupdate() {
 		super(null);
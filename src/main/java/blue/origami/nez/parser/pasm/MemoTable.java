@@ -0,0 +1,274 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MemoTable is a packrat memo table stored as parallel arrays (struct of
+ * arrays). An entry is identified by a key that packs a generation, an input
+ * position and a memo point; subclasses decide which slot a key occupies and
+ * what is evicted on collision.
+ */
+
+public abstract class MemoTable {
+
+	/* The generation occupies the upper bits of each key */
+	private final static long Generation = 1L << 44;
+
+	final String strategy;
+	final int w;
+	final int m;
+	final long[] keys;
+	final int[] results;
+	final int[] positions;
+	final Object[] data;
+	private long generation = 0;
+
+	long hits = 0;
+	long misses = 0;
+	long stores = 0;
+	long evictions = 0;
+
+	MemoTable(String strategy, int w, int m, int size) {
+		this.strategy = strategy;
+		this.w = w;
+		this.m = m;
+		this.keys = new long[size];
+		this.results = new int[size];
+		this.positions = new int[size];
+		this.data = new Object[size];
+		Arrays.fill(this.keys, -1);
+	}
+
+	public static MemoTable newMemoTable(String strategy, int w, int m) {
+		switch (strategy) {
+		case "2way":
+			return new SetAssociative(w, m);
+		case "window":
+			return new SlidingWindow(w, m);
+		default:
+			return new DirectMapped(w, m);
+		}
+	}
+
+	final boolean isReusable(String strategy, int w, int m) {
+		return this.w == w && this.m == m && this.strategy.equals(strategy);
+	}
+
+	/**
+	 * Invalidates all entries by moving to the next generation.
+	 */
+
+	final void reset() {
+		this.generation += Generation;
+		if (this.generation < 0) { // wrapped around
+			this.generation = 0;
+			Arrays.fill(this.keys, -1);
+		}
+	}
+
+	final long key(int pos, int memoPoint) {
+		return this.generation + ((long) pos << 12) + memoPoint;
+	}
+
+	final boolean isValid(int index) {
+		return this.keys[index] >= this.generation;
+	}
+
+	final int lookup(int pos, int memoPoint) {
+		int index = this.find(this.key(pos, memoPoint), pos, memoPoint);
+		if (index < 0) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return index;
+	}
+
+	final int store(int pos, int memoPoint) {
+		long key = this.key(pos, memoPoint);
+		int index = this.slot(key, pos, memoPoint);
+		this.keys[index] = key;
+		this.stores++;
+		return index;
+	}
+
+	final void evict(int index, long key) {
+		if (this.keys[index] != key && this.isValid(index)) {
+			this.evictions++;
+		}
+	}
+
+	/* returns the index of key, or -1 */
+	abstract int find(long key, int pos, int memoPoint);
+
+	/* returns the index where key is stored */
+	abstract int slot(long key, int pos, int memoPoint);
+
+	public int size() {
+		return this.keys.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(W=%d, M=%d, size=%d)", this.strategy, this.w, this.m, this.size());
+	}
+
+	/**
+	 * Each key has exactly one slot; a colliding key overwrites it.
+	 */
+
+	static class DirectMapped extends MemoTable {
+		DirectMapped(int w, int m) {
+			super("direct", w, m, w * m + 1);
+		}
+
+		@Override
+		final int find(long key, int pos, int memoPoint) {
+			int index = (int) (key % this.keys.length);
+			return this.keys[index] == key ? index : -1;
+		}
+
+		@Override
+		final int slot(long key, int pos, int memoPoint) {
+			int index = (int) (key % this.keys.length);
+			this.evict(index, key);
+			return index;
+		}
+	}
+
+	/**
+	 * Each key maps to a set of two slots. A new key is inserted into the
+	 * first slot and the previous first entry moves to the second slot, so the
+	 * older of the two is evicted.
+	 */
+
+	static class SetAssociative extends MemoTable {
+		private final int sets;
+
+		SetAssociative(int w, int m) {
+			super("2way", w, m, ((w * m) / 2 + 1) * 2);
+			this.sets = this.keys.length / 2;
+		}
+
+		@Override
+		final int find(long key, int pos, int memoPoint) {
+			int index = (int) (key % this.sets) * 2;
+			if (this.keys[index] == key) {
+				return index;
+			}
+			if (this.keys[index + 1] == key) {
+				return index + 1;
+			}
+			return -1;
+		}
+
+		@Override
+		final int slot(long key, int pos, int memoPoint) {
+			int index = (int) (key % this.sets) * 2;
+			if (this.keys[index] == key || !this.isValid(index)) {
+				return index;
+			}
+			if (this.keys[index + 1] == key) {
+				return index + 1;
+			}
+			this.evict(index + 1, key);
+			this.keys[index + 1] = this.keys[index];
+			this.results[index + 1] = this.results[index];
+			this.positions[index + 1] = this.positions[index];
+			this.data[index + 1] = this.data[index];
+			return index;
+		}
+	}
+
+	/**
+	 * Keeps the results of every memo point for the last W positions. An entry
+	 * is evicted when the parser reaches the position W bytes ahead of it.
+	 */
+
+	static class SlidingWindow extends MemoTable {
+		SlidingWindow(int w, int m) {
+			super("window", w, m, w * m);
+		}
+
+		@Override
+		final int find(long key, int pos, int memoPoint) {
+			int index = (pos % this.w) * this.m + memoPoint;
+			return this.keys[index] == key ? index : -1;
+		}
+
+		@Override
+		final int slot(long key, int pos, int memoPoint) {
+			int index = (pos % this.w) * this.m + memoPoint;
+			this.evict(index, key);
+			return index;
+		}
+	}
+
+	/**
+	 * Accumulates counters of the tables used by a parser. Parsing threads
+	 * add to striped counters without locking; the totals are summed only
+	 * when the statistics are read.
+	 */
+
+	public static class MemoStat {
+		/* the shape of the last table; the table itself would retain its trees */
+		private volatile String strategy = null;
+		private volatile int w;
+		private volatile int m;
+		private volatile int size;
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder stores = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+
+		void add(MemoTable t) {
+			this.strategy = t.strategy;
+			this.w = t.w;
+			this.m = t.m;
+			this.size = t.size();
+			this.hits.add(t.hits);
+			this.misses.add(t.misses);
+			this.stores.add(t.stores);
+			this.evictions.add(t.evictions);
+			t.hits = 0;
+			t.misses = 0;
+			t.stores = 0;
+			t.evictions = 0;
+		}
+
+		public double hitRatio() {
+			long hits = this.hits.sum();
+			long lookups = hits + this.misses.sum();
+			return lookups == 0 ? 0.0 : (double) hits / lookups;
+		}
+
+		@Override
+		public String toString() {
+			if (this.strategy == null) {
+				return "unused";
+			}
+			long hits = this.hits.sum();
+			long misses = this.misses.sum();
+			double ratio = hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+			return String.format("%s(W=%d, M=%d, size=%d) hit=%d miss=%d (%.2f%%) store=%d eviction=%d", this.strategy,
+					this.w, this.m, this.size, hits, misses, ratio * 100, this.stores.sum(), this.evictions.sum());
+		}
+	}
+}
@@ -18,12 +18,13 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 
+@SuppressWarnings("serial")
 public final class Mfindpos extends PAsmInst {
-	public final int memoPoint;
+	public final MemoPoint memoPoint;
 
 	public Mfindpos(MemoPoint m, PAsmInst next, PAsmInst ret) {
 		super(next);
-		this.memoPoint = m.id;
+		this.memoPoint = m;
 		// this.ret = ret;
 		assert (ret instanceof Iret);
 	}
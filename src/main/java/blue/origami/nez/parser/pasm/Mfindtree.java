@@ -18,13 +18,14 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 
+@SuppressWarnings("serial")
 public final class Mfindtree extends PAsmInst {
-	public final int memoPoint;
+	public final MemoPoint memoPoint;
 	// public final PAsmInst jump;
 
 	public Mfindtree(MemoPoint m, PAsmInst unfound, PAsmInst ret) {
 		super(unfound);
-		this.memoPoint = m.id;
+		this.memoPoint = m;
 		assert (ret instanceof Iret);
 		// this.jump = ret;
 	}
@@ -18,12 +18,13 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 
+@SuppressWarnings("serial")
 public final class Mmemo extends PAsmInst {
-	public final int memoPoint;
+	public final MemoPoint memoPoint;
 
 	public Mmemo(MemoPoint m, PAsmInst next) {
 		super(next);
-		this.memoPoint = m.id;
+		this.memoPoint = m;
 	}
 
 	@Override
@@ -18,12 +18,13 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 
+@SuppressWarnings("serial")
 public final class Mmemof extends PAsmInst {
-	public final int memoPoint;
+	public final MemoPoint memoPoint;
 
 	public Mmemof(MemoPoint m) {
 		super(null);
-		this.memoPoint = m.id;
+		this.memoPoint = m;
 	}
 
 	@Override
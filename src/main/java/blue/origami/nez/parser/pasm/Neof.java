@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public class Neof extends PAsmInst {
 
 	public Neof(PAsmInst next) {
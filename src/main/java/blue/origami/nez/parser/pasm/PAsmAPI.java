@@ -1,8 +1,14 @@
 package blue.origami.nez.parser.pasm;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 import blue.origami.nez.ast.Source;
 import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.parser.ByteScanner;
 import blue.origami.nez.parser.ParserContext;
+import blue.origami.nez.parser.ParserGrammar.MemoPoint;
+import blue.origami.nez.parser.StringSource;
 import blue.origami.nez.parser.TrapAction;
 import blue.origami.util.OStringUtils;
 
@@ -10,20 +16,23 @@ public class PAsmAPI {
 
 	public static class NezParserContext implements ParserContext {
 		Source s;
+		byte[] inputs; // the array of s if s is array-backed, or null
+		int length;
 		int pos;
 		Object tree;
-		TreeLog treeLog;
+		TreeLog log;
+		int treeLog;
 		TreeFunc newFunc;
 		TreeSetFunc setFunc;
 		State state;
-		MemoEntry[] memos;
+		MemoTable memos;
 		State uState;
 
 		NezParserContext(Source s, int pos, TreeFunc newFunc, TreeSetFunc setFunc) {
 			this.s = s;
 			this.pos = pos;
 			this.tree = null;
-			this.treeLog = new TreeLog(null);
+			initTreeLog(this, InitTreeLogSize);
 			this.newFunc = newFunc;
 			this.setFunc = setFunc;
 			this.state = null;
@@ -31,20 +40,37 @@ public class PAsmAPI {
 			this.uState = null;
 		}
 
+		@Override
+		public final long getPosition() {
+			return this.pos;
+		}
+
 	}
 
-	public static class TreeLog {
-		int op;
-		int pos;
-		Object data;
-		Object tree;
-		TreeLog prevLog;
-		TreeLog nextLog;
+	/**
+	 * The tree log is a buffer of tree operations in parallel arrays; treeLog
+	 * is the index of the last operation and backtracking just restores it.
+	 * Each entry also records, for the node open after it, the index of its
+	 * begin operation, the number of links so far, and the indexes of the
+	 * latest tag and value operations, so that endTree finds them in O(1).
+	 */
 
-		TreeLog(TreeLog prev) {
-			this.prevLog = prev;
-		}
+	static final int LogBegin = 0;
+	static final int LogTag = 1;
+	static final int LogValue = 2;
+	static final int LogLink = 3;
+	private static final int InitTreeLogSize = 64;
 
+	public static class TreeLog {
+		int[] op;
+		int[] pos;
+		Object[] data;
+		Object[] tree;
+		int[] begin;
+		int[] count;
+		int[] tagAt;
+		int[] valueAt;
+		int used; // the highest index written since the last clear
 	}
 
 	public static class State {
@@ -76,14 +102,46 @@ public class PAsmAPI {
 		Object apply(Object parent, int index, Symbol label, Object child);
 	}
 
+	/**
+	 * Lets the byte operations below index the zero-terminated array of a
+	 * StringSource with int positions, instead of calling the Source
+	 * interface (a polymorphic call site) on every byte.
+	 */
+
+	static final void useDirectInput(NezParserContext px) {
+		if (px.s instanceof StringSource) {
+			StringSource s = (StringSource) px.s;
+			px.inputs = s.inputs;
+			px.length = (int) s.length();
+		}
+	}
+
 	public static final int getbyte(NezParserContext px) {
+		byte[] inputs = px.inputs;
+		if (inputs != null) {
+			return inputs[px.pos] & 0xff;
+		}
 		return px.s.byteAt(px.pos);
 	}
 
 	public static final int nextbyte(NezParserContext px) {
+		byte[] inputs = px.inputs;
+		if (inputs != null) {
+			return inputs[px.pos++] & 0xff;
+		}
 		return px.s.byteAt(px.pos++);
 	}
 
+	/* the byte at pos + shift, or 0 past the end of input */
+	public static final int peekbyte(NezParserContext px, int shift) {
+		int pos = px.pos + shift;
+		byte[] inputs = px.inputs;
+		if (inputs != null) {
+			return pos < inputs.length ? inputs[pos] & 0xff : 0;
+		}
+		return px.s.eof(pos) ? 0 : px.s.byteAt(pos);
+	}
+
 	public static final boolean move(NezParserContext px, int shift) {
 		px.pos = px.pos + shift;
 		return true;
@@ -94,16 +152,38 @@ public class PAsmAPI {
 	}
 
 	public static final boolean neof(NezParserContext px) {
+		if (px.inputs != null) {
+			return px.pos < px.length;
+		}
 		return !px.s.eof(px.pos);
 	}
 
 	public static final boolean matchBytes(NezParserContext px, byte[] utf8) {
+		byte[] inputs = px.inputs;
+		if (inputs != null) {
+			int pos = px.pos;
+			if (pos + utf8.length > px.length) {
+				return false;
+			}
+			for (int i = 0; i < utf8.length; i++) {
+				if (utf8[i] != inputs[pos + i]) {
+					return false;
+				}
+			}
+			px.pos = pos + utf8.length;
+			return true;
+		}
 		if (px.s.match(px.pos, utf8)) {
 			return move(px, utf8.length);
 		}
 		return false;
 	}
 
+	/* skips a repetition with a scanning kernel */
+	public static final void scan(NezParserContext px, ByteScanner scanner) {
+		px.pos = (int) scanner.scanSource(px.s, px.pos);
+	}
+
 	public static final boolean ftrue(NezParserContext px) {
 		return true;
 	}
@@ -114,43 +194,88 @@ public class PAsmAPI {
 
 	/* Tree Construction */
 
-	public static final TreeLog useTreeLog(NezParserContext px) {
-		TreeLog uLog = px.treeLog;
-		if (uLog.nextLog == null) {
-			uLog.nextLog = new TreeLog(uLog);
-		}
-		return uLog.nextLog;
-	}
-
-	public static final TreeLog unuseTreeLog(NezParserContext px, TreeLog treeLog) {
+	private static void initTreeLog(NezParserContext px, int size) {
+		TreeLog log = new TreeLog();
+		log.op = new int[size];
+		log.pos = new int[size];
+		log.data = new Object[size];
+		log.tree = new Object[size];
+		log.begin = new int[size];
+		log.count = new int[size];
+		log.tagAt = new int[size];
+		log.valueAt = new int[size];
+		log.op[0] = -1; // the root entry, outside any node
+		px.log = log;
+		px.treeLog = 0;
+	}
+
+	private static void growTreeLog(TreeLog log) {
+		int size = log.op.length * 2;
+		log.op = Arrays.copyOf(log.op, size);
+		log.pos = Arrays.copyOf(log.pos, size);
+		log.data = Arrays.copyOf(log.data, size);
+		log.tree = Arrays.copyOf(log.tree, size);
+		log.begin = Arrays.copyOf(log.begin, size);
+		log.count = Arrays.copyOf(log.count, size);
+		log.tagAt = Arrays.copyOf(log.tagAt, size);
+		log.valueAt = Arrays.copyOf(log.valueAt, size);
+	}
+
+	static void clearTreeLog(NezParserContext px) {
+		TreeLog log = px.log;
+		Arrays.fill(log.data, 0, log.used + 1, null);
+		Arrays.fill(log.tree, 0, log.used + 1, null);
+		log.used = 0;
+		px.treeLog = 0;
+	}
+
+	public static final int unuseTreeLog(NezParserContext px, int treeLog) {
 		return treeLog;
 	}
 
 	public static final boolean logTree(NezParserContext px, int op, int pos, Object data, Object tree) {
-		TreeLog treeLog = useTreeLog(px);
-		treeLog.op = op;
-		treeLog.pos = pos;
-		treeLog.data = data;
-		treeLog.tree = tree;
-		assert (treeLog.prevLog == px.treeLog);
-		px.treeLog = treeLog;
+		TreeLog log = px.log;
+		int prev = px.treeLog;
+		int i = prev + 1;
+		if (i == log.op.length) {
+			growTreeLog(log);
+		}
+		if (i > log.used) {
+			log.used = i;
+		}
+		log.op[i] = op;
+		log.pos[i] = pos;
+		log.data[i] = data;
+		log.tree[i] = tree;
+		if (op == LogBegin) {
+			log.begin[i] = i;
+			log.count[i] = 0;
+			log.tagAt[i] = 0;
+			log.valueAt[i] = 0;
+		} else {
+			log.begin[i] = log.begin[prev];
+			log.count[i] = op == LogLink ? log.count[prev] + 1 : log.count[prev];
+			log.tagAt[i] = op == LogTag ? i : log.tagAt[prev];
+			log.valueAt[i] = op == LogValue ? i : log.valueAt[prev];
+		}
+		px.treeLog = i;
 		return true;
 	}
 
 	public static final boolean beginTree(NezParserContext px, int shift) {
-		return logTree(px, 0, px.pos + shift, null, null);
+		return logTree(px, LogBegin, px.pos + shift, null, null);
 	}
 
 	public static final boolean tagTree(NezParserContext px, Symbol tag) {
-		return logTree(px, 1, 0, tag, null);
+		return logTree(px, LogTag, 0, tag, null);
 	}
 
 	public static final boolean valueTree(NezParserContext px, Object value) {
-		return logTree(px, 2, 0, value, null);
+		return logTree(px, LogValue, 0, value, null);
 	}
 
 	public static final boolean linkTree(NezParserContext px, Symbol label) {
-		return logTree(px, 3, 0, label, px.tree);
+		return logTree(px, LogLink, 0, label, px.tree);
 	}
 
 	public static final boolean foldTree(NezParserContext px, int shift, Symbol label) {
@@ -158,33 +283,31 @@ public class PAsmAPI {
 	}
 
 	public static final boolean endTree(NezParserContext px, int shift, Symbol tag, Object value) {
-		int cnt = 0;
-		TreeLog treeLog = px.treeLog;
-		TreeLog prevLog = px.treeLog;
-		while (prevLog.op != 0) {
-			if (prevLog.op == 3) {
-				cnt = cnt + 1;
-			} else if (tag == null && prevLog.op == 1) {
-				tag = (Symbol) prevLog.data;
-			} else if (value == null && prevLog.op == 2) {
-				value = prevLog.data;
-			}
-			prevLog = prevLog.prevLog;
-		}
-		px.tree = px.newFunc.apply(tag, px.s, prevLog.pos, px.pos + shift, cnt, value);
-		prevLog = treeLog;
-		while (prevLog.op != 0) {
-			if (prevLog.op == 3) {
-				cnt = cnt - 1;
-				px.tree = px.setFunc.apply(px.tree, cnt, (Symbol) prevLog.data, prevLog.tree);
+		TreeLog log = px.log;
+		int top = px.treeLog;
+		int begin = log.begin[top];
+		int cnt = log.count[top];
+		if (tag == null && log.tagAt[top] != 0) {
+			tag = (Symbol) log.data[log.tagAt[top]];
+		}
+		if (value == null && log.valueAt[top] != 0) {
+			value = log.data[log.valueAt[top]];
+		}
+		Object t = px.newFunc.apply(tag, px.s, log.pos[begin], px.pos + shift, cnt, value);
+		if (cnt > 0) {
+			int index = 0;
+			for (int i = begin + 1; i <= top; i++) {
+				if (log.op[i] == LogLink) {
+					t = px.setFunc.apply(t, index++, (Symbol) log.data[i], log.tree[i]);
+				}
 			}
-			prevLog = prevLog.prevLog;
 		}
-		px.treeLog = unuseTreeLog(px, prevLog.prevLog);
+		px.tree = t;
+		px.treeLog = unuseTreeLog(px, begin - 1);
 		return true;
 	}
 
-	public static final boolean backLink(NezParserContext px, TreeLog treeLog, Symbol label, Object tree) {
+	public static final boolean backLink(NezParserContext px, int treeLog, Symbol label, Object tree) {
 		px.treeLog = unuseTreeLog(px, treeLog);
 		linkTree(px, label);
 		px.tree = tree;
@@ -195,7 +318,7 @@ public class PAsmAPI {
 		return (bits[n / 32] & (1 << (n % 32))) != 0;
 	}
 
-	public interface SymbolFunc {
+	public interface SymbolFunc extends Serializable {
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos);
 	}
 
@@ -203,6 +326,7 @@ public class PAsmAPI {
 		return px.s.subBytes(ppos, pos);
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolDefFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -217,6 +341,7 @@ public class PAsmAPI {
 
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolResetFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -230,6 +355,7 @@ public class PAsmAPI {
 		}
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolExistFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -246,6 +372,7 @@ public class PAsmAPI {
 
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolExistString implements SymbolFunc {
 		final byte[] thunk;
 
@@ -268,6 +395,7 @@ public class PAsmAPI {
 		}
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolMatchFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -283,6 +411,7 @@ public class PAsmAPI {
 		}
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolEqualsFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -299,6 +428,7 @@ public class PAsmAPI {
 		}
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolContainsFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -316,6 +446,7 @@ public class PAsmAPI {
 	}
 
 	// scan
+	@SuppressWarnings("serial")
 	public static class SymbolScanFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -331,6 +462,7 @@ public class PAsmAPI {
 
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolScanBitFunc implements SymbolFunc {
 
 		public SymbolScanBitFunc(long mask, int shift) {
@@ -351,6 +483,7 @@ public class PAsmAPI {
 
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolDecFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -370,6 +503,7 @@ public class PAsmAPI {
 		}
 	}
 
+	@SuppressWarnings("serial")
 	public static class SymbolZeroFunc implements SymbolFunc {
 		@Override
 		public boolean apply(NezParserContext px, State state, Symbol tag, int ppos) {
@@ -405,70 +539,87 @@ public class PAsmAPI {
 	public final static int SuccFound = 1;
 	public final static int FailFound = 2;
 
-	static class MemoEntry {
-		long key;
-		int result;
-		int pos;
-		Object data;
+	static void initMemo(NezParserContext px, String strategy, int w, int m) {
+		if (px.memos != null && px.memos.isReusable(strategy, w, m)) {
+			px.memos.reset();
+			return;
+		}
+		px.memos = MemoTable.newMemoTable(strategy, w, m);
+	}
 
-		MemoEntry(long key) {
-			this.key = key;
-			this.result = 0;
-			this.pos = 0;
-			this.data = null;
+	public static final int lookupMemo1(NezParserContext px, int memoPoint) {
+		MemoTable t = px.memos;
+		int index = t.lookup(px.pos, memoPoint);
+		if (index >= 0) {
+			px.pos = t.positions[index];
+			return t.results[index];
 		}
+		return NotFound;
 	}
 
-	static void initMemo(NezParserContext px, int w, int m) {
-		int cnt = 0, max = w * m + 1;
-		px.memos = new MemoEntry[max];
-		while (cnt < max) {
-			px.memos[cnt] = new MemoEntry(-1);
-			cnt = cnt + 1;
+	public static final int lookupMemo3(NezParserContext px, int memoPoint) {
+		MemoTable t = px.memos;
+		int index = t.lookup(px.pos, memoPoint);
+		if (index >= 0) {
+			px.pos = t.positions[index];
+			px.tree = t.data[index];
+			return t.results[index];
 		}
+		return NotFound;
 	}
 
-	static final long longkey(long key, int memoPoint) {
-		return (key << 12) + memoPoint;
+	/* Adaptive memoization: a memo point records its statistics and is skipped while deactivated */
+
+	public static final int lookupMemo1(NezParserContext px, MemoPoint m) {
+		if (!m.isEnabled()) {
+			m.skip();
+			return NotFound;
+		}
+		int pos = px.pos;
+		return profileMemo(m, lookupMemo1(px, m.id), px.pos - pos);
 	}
 
-	public static final MemoEntry getMemo(NezParserContext px, long key) {
-		return px.memos[(int) (key % px.memos.length)];
+	public static final int lookupMemo3(NezParserContext px, MemoPoint m) {
+		if (!m.isEnabled()) {
+			m.skip();
+			return NotFound;
+		}
+		int pos = px.pos;
+		return profileMemo(m, lookupMemo3(px, m.id), px.pos - pos);
 	}
 
-	public static final int lookupMemo1(NezParserContext px, int memoPoint) {
-		long key = longkey(px.pos, memoPoint);
-		MemoEntry m = getMemo(px, key);
-		if (m.key == key) {
-			px.pos = m.pos;
-			return m.result;
+	private static int profileMemo(MemoPoint m, int result, int consumed) {
+		switch (result) {
+		case SuccFound:
+			m.memoHit(consumed);
+			break;
+		case FailFound:
+			m.failHit();
+			break;
+		default:
+			m.miss();
 		}
-		return NotFound;
+		return result;
 	}
 
-	public static final int lookupMemo3(NezParserContext px, int memoPoint) {
-		long key = longkey(px.pos, memoPoint);
-		MemoEntry m = getMemo(px, key);
-		if (m.key == key) {
-			px.pos = m.pos;
-			px.tree = m.data;
-			return m.result;
+	public static final boolean storeMemo(NezParserContext px, MemoPoint m, int pos, boolean matched) {
+		if (m.isEnabled()) {
+			storeMemo(px, m.id, pos, matched);
 		}
-		return NotFound;
+		return matched;
 	}
 
 	public static final boolean storeMemo(NezParserContext px, int memoPoint, int pos, boolean matched) {
-		long key = longkey(pos, memoPoint);
-		MemoEntry m = getMemo(px, key);
-		m.key = key;
+		MemoTable t = px.memos;
+		int index = t.store(pos, memoPoint);
 		if (matched) {
-			m.result = SuccFound;
-			m.pos = px.pos;
+			t.results[index] = SuccFound;
+			t.positions[index] = px.pos;
 		} else {
-			m.result = FailFound;
-			m.pos = pos;
+			t.results[index] = FailFound;
+			t.positions[index] = pos;
 		}
-		m.data = px.tree;
+		t.data[index] = px.tree;
 		return matched;
 	}
 
@@ -482,14 +633,55 @@ public class PAsmAPI {
 			initVM(this);
 		}
 
+		/**
+		 * Reuses this context (and its stack arrays) for another input.
+		 */
+
+		public void reset(Source s, int pos, TreeFunc newFunc, TreeSetFunc setFunc) {
+			this.s = s;
+			this.inputs = null;
+			this.pos = pos;
+			this.tree = null;
+			this.treeLog = 0;
+			this.newFunc = newFunc;
+			this.setFunc = setFunc;
+			this.state = null;
+			this.uState = null;
+			this.head_pos = pos;
+			initVM(this);
+		}
+
+		/**
+		 * Drops references to the input and the trees of the last run.
+		 */
+
+		public void clear() {
+			this.s = null;
+			this.inputs = null;
+			this.tree = null;
+			this.state = null;
+			this.uState = null;
+			Arrays.fill(this.stackTree, null);
+			Arrays.fill(this.stackState, null);
+			clearTreeLog(this);
+		}
+
 		private int head_pos;
 
 		public long getMaximumPosition() {
 			return this.head_pos;
 		}
 
-		PAsmStack unused;
-		private PAsmStack longjmp;
+		/* stack (parallel arrays indexed by sp) */
+		private int sp;
+		private int longjmp;
+		private int[] stackPos;
+		private Object[] stackTree;
+		private int[] stackLog;
+		private State[] stackState;
+		private PAsmInst[] stackJump;
+		private int[] stackLongjmp;
+		boolean status;
 
 		TrapAction[] actions;
 
@@ -507,67 +699,70 @@ public class PAsmAPI {
 		Fail, Pos, Tree, State, Ret,
 	}
 
-	public static class PAsmStack {
-		// StackType type;
-		int pos;
-		Object tree;
-		TreeLog treeLog;
-		State state;
-		PAsmInst jump;
-		PAsmStack longjmp;
-		final PAsmStack prev;
-		PAsmStack next;
+	private final static int InitStackSize = 64;
 
-		PAsmStack(PAsmStack prev) {
-			this.prev = prev;
-			this.next = null;
-		}
+	private static void initStack(PAsmContext px, int size) {
+		px.stackPos = new int[size];
+		px.stackTree = new Object[size];
+		px.stackLog = new int[size];
+		px.stackState = new State[size];
+		px.stackJump = new PAsmInst[size];
+		px.stackLongjmp = new int[size];
+	}
+
+	private static void growStack(PAsmContext px) {
+		int size = px.stackPos.length * 2;
+		px.stackPos = Arrays.copyOf(px.stackPos, size);
+		px.stackTree = Arrays.copyOf(px.stackTree, size);
+		px.stackLog = Arrays.copyOf(px.stackLog, size);
+		px.stackState = Arrays.copyOf(px.stackState, size);
+		px.stackJump = Arrays.copyOf(px.stackJump, size);
+		px.stackLongjmp = Arrays.copyOf(px.stackLongjmp, size);
 	}
 
-	private static void push(PAsmContext px, PAsmStack used) {
-		assert (px.unused == used);
-		if (used.next == null) {
-			used.next = new PAsmStack(used);
+	private static int push(PAsmContext px) {
+		int sp = px.sp;
+		if (sp == px.stackPos.length) {
+			growStack(px);
 		}
-		px.unused = used.next;
+		px.sp = sp + 1;
+		return sp;
 	}
 
-	private static final PAsmStack pop(PAsmContext px) {
-		px.unused = px.unused.prev;
-		return px.unused;
+	private static final int pop(PAsmContext px) {
+		return --px.sp;
 	}
 
 	public static final void pushFail(PAsmContext px, PAsmInst jump) {
-		PAsmStack s = px.unused;
+		int s = push(px);
 		// s.type = StackType.Fail;
-		s.pos = px.pos;
-		s.tree = px.tree;
-		s.treeLog = px.treeLog;
-		s.state = px.state;
-		s.jump = jump;
-		s.longjmp = px.longjmp;
+		px.stackPos[s] = px.pos;
+		px.stackTree[s] = px.tree;
+		px.stackLog[s] = px.treeLog;
+		px.stackState[s] = px.state;
+		px.stackJump[s] = jump;
+		px.stackLongjmp[s] = px.longjmp;
 		px.longjmp = s;
-		push(px, s);
 	}
 
 	public static final int popFail(PAsmContext px) { // used in succ
-		PAsmStack s = px.longjmp;
+		int s = px.longjmp;
 		// assert (s.type == StackType.Fail);
-		px.longjmp = s.longjmp;
-		px.unused = s;
-		return s.pos;
+		px.longjmp = px.stackLongjmp[s];
+		px.sp = s;
+		return px.stackPos[s];
 	}
 
 	public static final PAsmInst raiseFail(PAsmContext px)/* popFail() */ {
-		PAsmStack s = px.longjmp;
+		int s = px.longjmp;
 		// assert (s.type == StackType.Fail);
-		backtrack(px, s.pos);
-		px.tree = s.tree;
-		px.treeLog = unuseTreeLog(px, s.treeLog);
-		px.state = s.state;
-		px.longjmp = s.longjmp;
-		px.unused = s;
-		return s.jump;
+		backtrack(px, px.stackPos[s]);
+		px.tree = px.stackTree[s];
+		px.treeLog = unuseTreeLog(px, px.stackLog[s]);
+		px.state = px.stackState[s];
+		px.longjmp = px.stackLongjmp[s];
+		px.sp = s;
+		return px.stackJump[s];
 	}
 
 	public static void backtrack(PAsmContext px, int pos) {
@@ -578,97 +773,115 @@ public class PAsmAPI {
 	}
 
 	public static final PAsmInst updateFail(PAsmContext px, PAsmInst next) {
-		PAsmStack s = px.longjmp;
+		int s = px.longjmp;
 		// assert (s.type == StackType.Fail);
 		// System.out.printf("ppos=%d, pos=%d\n", s.pos, px.pos);
-		if (s.pos == px.pos) {
+		if (px.stackPos[s] == px.pos) {
 			return raiseFail(px);
 		}
-		s.pos = px.pos;
-		s.tree = px.tree;
-		s.treeLog = px.treeLog;
-		s.state = px.state;
+		px.stackPos[s] = px.pos;
+		px.stackTree[s] = px.tree;
+		px.stackLog[s] = px.treeLog;
+		px.stackState[s] = px.state;
 		return next;
 	}
 
 	public static void pushRet(PAsmContext px, PAsmInst jump) {
-		PAsmStack s = px.unused;
+		int s = push(px);
 		// s.type = StackType.Ret;
-		s.jump = jump;
-		push(px, s);
+		px.stackPos[s] = NoPos;
+		px.stackJump[s] = jump;
 	}
 
 	public static final PAsmInst popRet(PAsmContext px) {
-		PAsmStack s = pop(px);
-		// if (s.type != StackType.Ret) {
-		// System.out.println("s.type = " + s.type);
-		// }
+		int s = pop(px);
 		// assert (s.type == StackType.Ret);
-		return s.jump;
+		return px.stackJump[s];
 	}
 
 	public static final void pushPos(PAsmContext px) {
-		PAsmStack s = px.unused;
+		int s = push(px);
 		// s.type = StackType.Pos;
-		s.pos = px.pos;
-		push(px, s);
+		px.stackPos[s] = px.pos;
+		px.stackJump[s] = null;
 	}
 
 	public static final int popPos(PAsmContext px) {
-		PAsmStack s = pop(px);
-		// if (s.type != StackType.Pos) {
-		// System.out.println("s.type = " + s.type);
-		// }
+		int s = pop(px);
 		// assert (s.type == StackType.Pos);
-		return s.pos;
+		return px.stackPos[s];
 	}
 
 	public static final void pushTree(PAsmContext px) {
-		PAsmStack s = px.unused;
+		int s = push(px);
 		// s.type = StackType.Tree;
-		s.tree = px.tree;
-		s.treeLog = px.treeLog;
-		push(px, s);
+		px.stackPos[s] = NoPos;
+		px.stackTree[s] = px.tree;
+		px.stackLog[s] = px.treeLog;
 	}
 
 	public static final void popTree(PAsmContext px) {
-		PAsmStack s = pop(px);
-		// if (s.type != StackType.Tree) {
-		// System.out.println("s.type = " + s.type);
-		// }
+		int s = pop(px);
 		// assert (s.type == StackType.Tree);
-		px.tree = s.tree;
-		px.treeLog = unuseTreeLog(px, s.treeLog);
+		px.tree = px.stackTree[s];
+		px.treeLog = unuseTreeLog(px, px.stackLog[s]);
 	}
 
 	public static final void popTree(PAsmContext px, Symbol label) {
-		PAsmStack s = pop(px);
-		// if (s.type != StackType.Tree) {
-		// System.out.println("s.type = " + s.type);
-		// }
+		int s = pop(px);
 		// assert (s.type == StackType.Tree);
-		px.treeLog = unuseTreeLog(px, s.treeLog);
+		px.treeLog = unuseTreeLog(px, px.stackLog[s]);
 		linkTree(px, label);
-		px.tree = s.tree;
+		px.tree = px.stackTree[s];
 	}
 
 	public static void pushState(PAsmContext px) {
-		PAsmStack s = px.unused;
+		int s = push(px);
 		// s.type = StackType.State;
-		s.state = px.state;
-		push(px, s);
+		px.stackPos[s] = NoPos;
+		px.stackState[s] = px.state;
 	}
 
 	public static void popState(PAsmContext px) {
-		PAsmStack s = pop(px);
+		int s = pop(px);
 		// assert (s.type == StackType.State);
-		px.state = s.state;
+		px.state = px.stackState[s];
+	}
+
+	/* frames that never restore the position */
+	private final static int NoPos = Integer.MAX_VALUE;
+
+	/**
+	 * Returns the lowest position that the VM may still read again: the
+	 * lowest backtrack position on the stack (except the bottom exit frame
+	 * and memo failures, which only record the position) or the start of the
+	 * memo window.
+	 */
+
+	public static final int lowestLivePosition(PAsmContext px) {
+		int low = px.pos;
+		if (px.memos != null) {
+			low = Math.max(0, low - px.memos.w);
+		}
+		for (int s = 1; s < px.sp; s++) {
+			if (px.stackPos[s] < low && !(px.stackJump[s] instanceof Mmemof)) {
+				low = px.stackPos[s];
+			}
+		}
+		return low;
 	}
 
+	private final static PAsmInst exitFail = new Iexit(false);
+	private final static PAsmInst exitSucc = new Iexit(true);
+
 	public static final void initVM(PAsmContext px) {
-		px.unused = new PAsmStack(null);
-		pushFail(px, new Iexit(false));
-		pushRet(px, new Iexit(true));
+		if (px.stackPos == null) {
+			initStack(px, InitStackSize);
+		}
+		px.sp = 0;
+		px.longjmp = 0;
+		pushFail(px, exitFail);
+		pushRet(px, exitSucc);
 	}
 
 }
@@ -17,17 +17,31 @@
 package blue.origami.nez.parser.pasm;
 
 import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 import blue.origami.nez.ast.Source;
 import blue.origami.nez.ast.SourcePosition;
+import blue.origami.nez.parser.ChannelSource;
 import blue.origami.nez.parser.ParserCode;
 import blue.origami.nez.parser.ParserGrammar;
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserProfiler;
 import blue.origami.nez.parser.TrapAction;
+import blue.origami.nez.parser.pasm.MemoTable.MemoStat;
 import blue.origami.nez.parser.pasm.PAsmAPI.PAsmContext;
 import blue.origami.nez.parser.pasm.PAsmAPI.TreeFunc;
 import blue.origami.nez.parser.pasm.PAsmAPI.TreeSetFunc;
@@ -38,8 +52,8 @@ public class PAsmCode implements ParserCode {
 
 	protected final OOption options;
 	protected final ParserGrammar grammar;
-	protected ArrayList<PAsmInst> codeList;
-	protected HashMap<String, PAsmInst> codeMap;
+	protected final ArrayList<PAsmInst> codeList;
+	protected final HashMap<String, PAsmInst> codeMap;
 
 	PAsmCode(ParserGrammar grammar, OOption options) {
 		this.options = options;
@@ -55,42 +69,167 @@ public class PAsmCode implements ParserCode {
 
 	@Override
 	public int match(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) {
-		PAsmContext px = new PAsmContext(s, pos, newTree, linkTree);
-		px.setTrap((TrapAction[]) this.options.get(ParserOption.TrapActions));
-		int w = this.options.intValue(ParserOption.WindowSize, 64);
-		if (this.getMemoPointSize() > 0 && w > 0) {
-			PAsmAPI.initMemo(px, w, this.getMemoPointSize());
+		PAsmContext px = this.acquireContext();
+		int epos = this.match(px, s, pos, newTree, linkTree);
+		this.releaseContext(px);
+		return epos;
+	}
+
+	@Override
+	public Object parse(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException {
+		PAsmContext px = this.acquireContext();
+		Object tree = this.parse(px, s, pos, newTree, linkTree);
+		this.releaseContext(px);
+		return tree;
+	}
+
+	@Override
+	public long parseEach(Source s, int pos, int end, TreeFunc newTree, TreeSetFunc linkTree, Consumer<Object> emit)
+			throws IOException {
+		PAsmContext px = this.acquireContext();
+		long epos = this.parseEach(px, s, pos, end, newTree, linkTree, emit);
+		this.releaseContext(px);
+		return epos;
+	}
+
+	@Override
+	public ParserCode newSession() {
+		return new PAsmSession(this);
+	}
+
+	int match(PAsmContext px, Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) {
+		this.initContext(px, s, pos, newTree, linkTree);
+		if (s instanceof ChannelSource) {
+			((ChannelSource) s).setWatermark(this.watermark(px));
+		}
+		boolean result;
+		try {
+			result = this.exec(px);
+		} finally {
+			if (s instanceof ChannelSource) {
+				((ChannelSource) s).setWatermark(null);
+			}
 		}
-		PAsmInst code = this.getStartInstruction();
-		boolean result = this.exec(px, code);
+		int epos = px.pos;
+		this.clearContext(px);
 		if (result) {
-			return px.pos;
+			return epos;
 		}
 		return -1;
 	}
 
-	@Override
-	public Object parse(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException {
-		PAsmContext px = new PAsmContext(s, pos, newTree, linkTree);
+	Object parse(PAsmContext px, Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException {
+		this.initContext(px, s, pos, newTree, linkTree);
+		boolean result = this.exec(px);
+		Object tree = px.tree;
+		int epos = px.pos;
+		long maxpos = px.getMaximumPosition();
+		this.clearContext(px);
+		if (tree == null && result) {
+			tree = newTree.apply(null, s, pos, epos, 0, null);
+		}
+		if (tree == null) {
+			this.perror(this.options, SourcePosition.newInstance(s, maxpos), NezFmt.syntax_error);
+			return null;
+		}
+		if (!s.eof(epos) && this.options.is(ParserOption.PartialFailure, false)) {
+			this.pwarn(this.options, SourcePosition.newInstance(s, epos), NezFmt.unconsumed);
+		}
+		return tree;
+	}
+
+	/**
+	 * Each record is parsed on a freshly reset context, so neither the stack
+	 * nor the memo table holds anything behind the current record. A
+	 * ChannelSource is released up to the end of the emitted record.
+	 */
+
+	long parseEach(PAsmContext px, Source s, int pos, int end, TreeFunc newTree, TreeSetFunc linkTree,
+			Consumer<Object> emit)
+			throws IOException {
+		while (pos < end && !s.eof(pos)) {
+			this.initContext(px, s, pos, newTree, linkTree);
+			boolean result = this.exec(px);
+			Object tree = px.tree;
+			int epos = px.pos;
+			long maxpos = px.getMaximumPosition();
+			this.clearContext(px);
+			if (!result) {
+				this.perror(this.options, SourcePosition.newInstance(s, maxpos), NezFmt.syntax_error);
+				break;
+			}
+			if (epos == pos) {
+				this.pwarn(this.options, SourcePosition.newInstance(s, epos), NezFmt.unconsumed);
+				break;
+			}
+			emit.accept(tree == null ? newTree.apply(null, s, pos, epos, 0, null) : tree);
+			if (s instanceof ChannelSource) {
+				((ChannelSource) s).release(epos);
+			}
+			pos = epos;
+		}
+		return pos;
+	}
+
+	/**
+	 * Reports the lowest position that a streaming source must retain while
+	 * matching. Parsing retains the whole input since trees refer to it.
+	 */
+
+	protected LongSupplier watermark(PAsmContext px) {
+		return () -> PAsmAPI.lowestLivePosition(px);
+	}
+
+	/* A context (with its stack arrays and memo table) is reused per thread */
+	private final ThreadLocal<PAsmContext> contextCache = new ThreadLocal<>();
+
+	protected PAsmContext acquireContext() {
+		PAsmContext px = this.contextCache.get();
+		if (px == null) {
+			return new PAsmContext(null, 0, null, null);
+		}
+		this.contextCache.set(null); // in use
+		return px;
+	}
+
+	protected void releaseContext(PAsmContext px) {
+		this.contextCache.set(px);
+	}
+
+	/* set by the compiler when productions are profiled */
+	ParserProfiler profiler = null;
+
+	protected void initContext(PAsmContext px, Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) {
+		px.reset(s, pos, newTree, linkTree);
+		if (this.profiler != null) {
+			this.profiler.resetCursor();
+		}
+		if (this.options.is(ParserOption.DirectInput, true)) {
+			PAsmAPI.useDirectInput(px);
+		}
 		px.setTrap((TrapAction[]) this.options.get(ParserOption.TrapActions));
 		int w = this.options.intValue(ParserOption.WindowSize, 64);
 		if (this.getMemoPointSize() > 0 && w > 0) {
-			PAsmAPI.initMemo(px, w, this.getMemoPointSize());
-		}
-		int ppos = px.pos;
-		PAsmInst code = this.getStartInstruction();
-		boolean result = this.exec(px, code);
-		if (px.tree == null && result) {
-			px.tree = newTree.apply(null, s, ppos, px.pos, 0, null);
-		}
-		if (px.tree == null) {
-			this.perror(this.options, SourcePosition.newInstance(s, px.getMaximumPosition()), NezFmt.syntax_error);
-			return null;
+			String strategy = this.options.stringValue(ParserOption.MemoTable, "direct");
+			PAsmAPI.initMemo(px, strategy, w, this.getMemoPointSize());
 		}
-		if (PAsmAPI.neof(px) && this.options.is(ParserOption.PartialFailure, false)) {
-			this.pwarn(this.options, SourcePosition.newInstance(s, px.pos), NezFmt.unconsumed);
+	}
+
+	private final MemoStat memoStat = new MemoStat();
+
+	protected void clearContext(PAsmContext px) {
+		if (px.memos != null) {
+			this.memoStat.add(px.memos);
 		}
-		return px.tree;
+		px.clear();
+	}
+
+	public MemoStat getMemoStat() {
+		return this.memoStat;
+	}
+
+	protected boolean exec(PAsmContext px) {
+		return this.exec(px, this.getStartInstruction());
 	}
 
 	PAsmInst getStartInstruction() {
@@ -141,16 +280,279 @@ public class PAsmCode implements ParserCode {
 	// }
 
 	private boolean exec(PAsmContext px, PAsmInst inst) {
+		if (this.dispatchCounts != null) {
+			return this.countDispatch(px, inst);
+		}
 		PAsmInst cur = inst;
 		try {
-			while (true) {
+			// Iexit stores the status and returns null
+			while (cur != null) {
 				// System.out.println(this.indent(px) + "[" + px.pos + "] " +
 				// cur);
-				PAsmInst next = cur.exec(px);
-				cur = next;
+				cur = cur.exec(px);
+			}
+			return px.status;
+		} catch (PAsmTerminationException e) {
+			return e.status;
+		}
+	}
+
+	/* instruction name to the number of its dispatches, while counting */
+	private volatile HashMap<String, Long> dispatchCounts = null;
+	private long backtracks = 0;
+	private long rewound = 0;
+
+	/**
+	 * Starts (or stops) counting dispatched instructions by name and
+	 * backtracks, which is slower and only meant for comparing instruction
+	 * sets.
+	 */
+
+	public final synchronized void setDispatchCounting(boolean enabled) {
+		this.dispatchCounts = enabled ? new HashMap<>() : null;
+		this.backtracks = 0;
+		this.rewound = 0;
+	}
+
+	public final synchronized Map<String, Long> getDispatchCounts() {
+		return this.dispatchCounts == null ? new HashMap<>() : new HashMap<>(this.dispatchCounts);
+	}
+
+	/**
+	 * Returns the number of instructions that moved the position backward
+	 * (failures and lookaheads), and the number of bytes they rewound.
+	 */
+
+	public final synchronized long[] getBacktrackCounts() {
+		return new long[] { this.backtracks, this.rewound };
+	}
+
+	private boolean countDispatch(PAsmContext px, PAsmInst inst) {
+		HashMap<Class<?>, long[]> counts = new HashMap<>();
+		long backtracks = 0;
+		long rewound = 0;
+		PAsmInst cur = inst;
+		try {
+			while (cur != null) {
+				long[] c = counts.get(cur.getClass());
+				if (c == null) {
+					c = new long[1];
+					counts.put(cur.getClass(), c);
+				}
+				c[0]++;
+				int pos = px.pos;
+				cur = cur.exec(px);
+				if (px.pos < pos) {
+					backtracks++;
+					rewound += pos - px.pos;
+				}
 			}
+			return px.status;
 		} catch (PAsmTerminationException e) {
 			return e.status;
+		} finally {
+			synchronized (this) {
+				if (this.dispatchCounts != null) {
+					for (Class<?> c : counts.keySet()) {
+						this.dispatchCounts.merge(c.getSimpleName(), counts.get(c)[0], Long::sum);
+					}
+					this.backtracks += backtracks;
+					this.rewound += rewound;
+				}
+			}
+		}
+	}
+
+	/* Serialized form */
+
+	/**
+	 * Writes the compiled code so that it can be loaded again without the
+	 * grammar. Each instruction is written by itself, and any reference to
+	 * another instruction is written as an index, so long instruction chains
+	 * do not recurse in the serializer.
+	 */
+
+	public void writeTo(OutputStream out) throws IOException {
+		CodeOutputStream o = new CodeOutputStream(out, this.codeList);
+		o.writeObject(this.grammar.getName());
+		o.writeBoolean(this.grammar.isBinaryGrammar());
+		o.writeObject(new ArrayList<>(this.grammar.getMemoPoints()));
+		o.writeInt(this.codeList.size());
+		for (int i = 0; i < o.insts.size(); i++) { // grows with unlisted instructions
+			o.writeBoolean(true);
+			o.current = o.insts.get(i).copy();
+			o.writeObject(o.current);
+		}
+		o.writeBoolean(false);
+		HashMap<String, Integer> entries = new HashMap<>();
+		for (String uname : this.codeMap.keySet()) {
+			entries.put(uname, o.id(this.codeMap.get(uname)));
+		}
+		o.current = null;
+		o.writeObject(entries);
+		o.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static PAsmCode readFrom(InputStream in, OOption options) throws IOException {
+		ObjectInputStream o = new CodeInputStream(in);
+		try {
+			String name = (String) o.readObject();
+			boolean isBinary = o.readBoolean();
+			List<MemoPoint> memoPoints = (List<MemoPoint>) o.readObject();
+			int size = o.readInt();
+			ArrayList<PAsmInst> insts = new ArrayList<>();
+			while (o.readBoolean()) {
+				insts.add((PAsmInst) o.readObject());
+			}
+			HashMap<String, Integer> entries = (HashMap<String, Integer>) o.readObject();
+			HashMap<Class<?>, Field[]> fieldMap = new HashMap<>();
+			for (PAsmInst inst : insts) {
+				link(inst, insts, fieldMap);
+			}
+			PAsmCode code = new PAsmCode(ParserGrammar.newCompiledGrammar(name, isBinary, memoPoints, options),
+					options);
+			code.codeList.addAll(insts.subList(0, size));
+			for (String uname : entries.keySet()) {
+				code.codeMap.put(uname, insts.get(entries.get(uname)));
+			}
+			return code;
+		} catch (ClassNotFoundException | ClassCastException | IllegalAccessException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void link(PAsmInst inst, List<PAsmInst> insts, HashMap<Class<?>, Field[]> fieldMap)
+			throws IllegalAccessException {
+		Field[] fields = fieldMap.get(inst.getClass());
+		if (fields == null) {
+			fields = linkFields(inst.getClass());
+			fieldMap.put(inst.getClass(), fields);
+		}
+		for (Field f : fields) {
+			Object v = f.get(inst);
+			if (v instanceof Ilink) {
+				f.set(inst, insts.get(((Ilink) v).id));
+			} else if (v instanceof PAsmInst[]) {
+				PAsmInst[] a = (PAsmInst[]) v;
+				for (int i = 0; i < a.length; i++) {
+					if (a[i] instanceof Ilink) {
+						a[i] = insts.get(((Ilink) a[i]).id);
+					}
+				}
+			}
+		}
+	}
+
+	/* fields that refer to instructions */
+	static Field[] linkFields(Class<?> c) {
+		ArrayList<Field> l = new ArrayList<>();
+		for (; c != PAsmAPI.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(f.getModifiers()) && (PAsmInst.class.isAssignableFrom(f.getType())
+						|| f.getType() == PAsmInst[].class)) {
+					f.setAccessible(true);
+					l.add(f);
+				}
+			}
+		}
+		return l.toArray(new Field[l.size()]);
+	}
+
+	private static class CodeOutputStream extends ObjectOutputStream {
+		final ArrayList<PAsmInst> insts;
+		final HashMap<PAsmInst, Integer> idMap = new HashMap<>();
+		PAsmInst current = null;
+
+		CodeOutputStream(OutputStream out, List<PAsmInst> code) throws IOException {
+			super(out);
+			this.enableReplaceObject(true);
+			this.insts = new ArrayList<>(code);
+			for (int i = 0; i < code.size(); i++) {
+				this.idMap.put(code.get(i), i);
+			}
+		}
+
+		int id(PAsmInst inst) {
+			Integer id = this.idMap.get(inst);
+			if (id == null) {
+				id = this.insts.size();
+				this.insts.add(inst);
+				this.idMap.put(inst, id);
+			}
+			return id;
+		}
+
+		@Override
+		protected Object replaceObject(Object o) {
+			if (o instanceof PAsmInst && o != this.current) {
+				return new Ilink(this.id((PAsmInst) o));
+			}
+			return o;
+		}
+	}
+
+	/*
+	 * Only the classes that compiled code consists of are resolved, so a
+	 * tampered cache file cannot instantiate arbitrary serializable classes.
+	 */
+	private static class CodeInputStream extends ObjectInputStream {
+		private final static String[] AllowedClasses = { "java.lang.Enum", "java.lang.Number", "java.lang.Integer",
+				"java.util.ArrayList", "java.util.HashMap" };
+
+		CodeInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (!isAllowed(desc.getName())) {
+				throw new InvalidClassException(desc.getName(), "not allowed in compiled code");
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			throw new InvalidClassException("proxy", "not allowed in compiled code");
+		}
+
+		static boolean isAllowed(String name) {
+			int dim = 0;
+			while (dim < name.length() && name.charAt(dim) == '[') {
+				dim++;
+			}
+			if (dim > 0) {
+				if (name.length() == dim + 1) {
+					return true; // an array of primitives
+				}
+				name = name.substring(dim + 1, name.length() - 1); // [Lname;
+			}
+			if (name.startsWith("blue.origami.nez.")) {
+				return true;
+			}
+			for (String c : AllowedClasses) {
+				if (c.equals(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/* a reference to another instruction, resolved after loading */
+	@SuppressWarnings("serial")
+	private static final class Ilink extends PAsmInst {
+		final int id;
+
+		Ilink(int id) {
+			super(null);
+			this.id = id;
+		}
+
+		@Override
+		public PAsmInst exec(PAsmContext px) {
+			throw new IllegalStateException("unlinked instruction " + this.id);
 		}
 	}
 
@@ -25,6 +25,7 @@ import java.util.Set;
 import blue.origami.nez.parser.ParserCompiler;
 import blue.origami.nez.parser.ParserGrammar;
 import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserProfiler;
 import blue.origami.nez.parser.ParserGrammar.MemoPoint;
 import blue.origami.nez.parser.pasm.PAsmAPI.SymbolDefFunc;
 import blue.origami.nez.parser.pasm.PAsmAPI.SymbolResetFunc;
@@ -60,6 +61,8 @@ import blue.origami.nez.peg.expression.PValue;
 import blue.origami.util.OOption;
 
 public class PAsmCompiler implements ParserCompiler {
+	/* bytes ahead that guard a choice; -DLookahead=0 turns the guards off */
+	public final static int DefaultLookahead = 2;
 
 	public PAsmCompiler() {
 
@@ -93,12 +96,15 @@ public class PAsmCompiler implements ParserCompiler {
 		boolean TreeConstruction = true;
 		boolean binaryGrammar = false;
 		boolean Optimization = true;
+		final ParserProfiler profiler;
 
 		CompilerVisitor(PAsmCode code, ParserGrammar grammar, OOption options) {
 			this.code = code;
 			this.grammar = grammar;
 			this.binaryGrammar = grammar.isBinaryGrammar();
 			this.TreeConstruction = options.is(ParserOption.TreeConstruction, true);
+			this.profiler = ParserProfiler.of(options);
+			code.profiler = this.profiler;
 		}
 
 		private PAsmCode compileAll() {
@@ -108,6 +114,9 @@ public class PAsmCompiler implements ParserCompiler {
 				String uname = p.getUniqueName();
 				MemoPoint memoPoint = this.code.getMemoPoint(uname);
 				PAsmInst prod = this.compileProductionExpression(memoPoint, p.getExpression(), ret);
+				if (this.profiler != null) {
+					prod = this.profile(uname, prod, ret);
+				}
 				this.code.setInstruction(uname, prod);
 				PAsmInst block = new Inop(uname, prod);
 				this.layoutCode(uniq, this.code.codeList(), block);
@@ -120,10 +129,34 @@ public class PAsmCompiler implements ParserCompiler {
 					}
 				}
 			}
-			PAsmCompiler.this.options.verbose("Instructions: %s", this.code.getInstructionSize());
+			int size = this.code.getInstructionSize();
+			int lookahead = PAsmCompiler.this.options.intValue(ParserOption.Lookahead, DefaultLookahead);
+			try {
+				if (lookahead > 0) {
+					int guarded = new PAsmLookahead(this.code, lookahead).guardAll();
+					PAsmCompiler.this.options.verbose("Guarded choices: %s", guarded);
+				}
+				if (PAsmCompiler.this.options.is(ParserOption.Fusion, true)) {
+					new PAsmFusion(this.code).fuseAll();
+				}
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+			PAsmCompiler.this.options.verbose("Instructions: %s (%s before fusion)", this.code.getInstructionSize(),
+					size);
 			return this.code;
 		}
 
+		/* enter; call the production; exit (or fail and backtrack) */
+		private PAsmInst profile(String uname, PAsmInst prod, PAsmInst ret) {
+			int uid = this.profiler.uid(uname);
+			PAsmInst exit = new Isucc(new Itrap(this.profiler.exitTrap(), uid, ret));
+			PAsmInst fail = new Itrap(this.profiler.failTrap(), uid, new Ifail());
+			Icall call = new Icall(uname, exit);
+			call.jump = prod;
+			return new Itrap(this.profiler.enterTrap(), uid, new Ialt(call, fail));
+		}
+
 		private PAsmInst compileProductionExpression(MemoPoint memoPoint, Expression p, final PAsmInst ret) {
 			assert (ret instanceof Iret);
 			if (memoPoint != null) {
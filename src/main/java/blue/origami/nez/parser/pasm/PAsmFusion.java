@@ -0,0 +1,331 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser.pasm;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A peephole pass over compiled PAsm code that fuses frequent instruction
+ * sequences into superinstructions (Abyte, Aset, Astr, Rbyte1, Rset1, Rdfa
+ * and Tleaf), joins byte sequences into Pstr, folds Ttag and Tvalue into the
+ * following Tend, and inlines calls of short straight-line productions. An
+ * instruction is folded into its predecessor only if nothing else refers to
+ * it; the pass repeats until nothing changes.
+ */
+
+class PAsmFusion {
+	private final static int MaxInline = 3;
+
+	private final PAsmCode code;
+	private final HashMap<Class<?>, Field[]> fieldMap = new HashMap<>();
+	private final IdentityHashMap<PAsmInst, Integer> refs = new IdentityHashMap<>();
+	private final IdentityHashMap<PAsmInst, PAsmInst> fused = new IdentityHashMap<>();
+	private final IdentityHashMap<PAsmInst, PAsmInst> consumed = new IdentityHashMap<>();
+
+	PAsmFusion(PAsmCode code) {
+		this.code = code;
+	}
+
+	/* returns the number of fused instructions */
+	int fuseAll() throws IllegalAccessException {
+		int total = 0;
+		for (int n = this.fuse(); n > 0; n = this.fuse()) {
+			total += n;
+		}
+		return total;
+	}
+
+	private int fuse() throws IllegalAccessException {
+		this.countRefs();
+		this.fused.clear();
+		this.consumed.clear();
+		for (PAsmInst inst : this.code.codeList()) {
+			if (!this.consumed.containsKey(inst)) {
+				PAsmInst f = this.fuse(inst);
+				if (f != null) {
+					this.fused.put(inst, f);
+				}
+			}
+		}
+		if (this.fused.size() > 0) {
+			this.relink();
+		}
+		return this.fused.size();
+	}
+
+	private PAsmInst fuse(PAsmInst inst) {
+		if (inst instanceof Ialt) {
+			return this.fuseAlt((Ialt) inst);
+		}
+		if (this.bytes(inst) != null && this.bytes(inst.next) != null && this.only(inst.next)) {
+			byte[] b1 = this.bytes(inst);
+			byte[] b2 = this.bytes(inst.next);
+			byte[] b = Arrays.copyOf(b1, b1.length + b2.length);
+			System.arraycopy(b2, 0, b, b1.length, b2.length);
+			return new Pstr(b, this.consume(inst.next).next);
+		}
+		if (inst instanceof Pset && inst.next instanceof Rset && this.only(inst.next)
+				&& Arrays.equals(((Pset) inst).bits, ((Rset) inst.next).bits)) {
+			return new Rset1(((Pset) inst).bits, this.consume(inst.next).next);
+		}
+		if (inst instanceof Pbyte && inst.next instanceof Rbyte && this.only(inst.next)
+				&& ((Pbyte) inst).byteChar == ((Rbyte) inst.next).byteChar) {
+			return new Rbyte1(((Pbyte) inst).byteChar, this.consume(inst.next).next);
+		}
+		if (inst instanceof Ttag && ((Ttag) inst).tag != null && inst.next instanceof Tend && this.only(inst.next)) {
+			Tend end = (Tend) this.consume(inst.next);
+			return new Tend(end.tag != null ? end.tag : ((Ttag) inst).tag, end.value, end.shift, end.next);
+		}
+		if (inst instanceof Tvalue && ((Tvalue) inst).value != null && inst.next instanceof Tend
+				&& this.only(inst.next)) {
+			Tend end = (Tend) this.consume(inst.next);
+			return new Tend(end.tag, end.value != null ? end.value : ((Tvalue) inst).value, end.shift, end.next);
+		}
+		if (inst instanceof Pstr && inst.next instanceof Tleaf && ((Tleaf) inst.next).utf8 == null
+				&& this.only(inst.next)) {
+			byte[] utf8 = ((Pstr) inst).utf8;
+			Tleaf leaf = (Tleaf) this.consume(inst.next);
+			return new Tleaf(leaf.beginShift + utf8.length, utf8, leaf.tag, leaf.value, leaf.endShift, leaf.next);
+		}
+		if (inst instanceof Tbegin) {
+			return this.fuseLeaf((Tbegin) inst);
+		}
+		if (inst instanceof Icall) {
+			return this.inline((Icall) inst);
+		}
+		return null;
+	}
+
+	/* the bytes that a Pbyte (except for the end of input) or Pstr matches */
+	private byte[] bytes(PAsmInst inst) {
+		if (inst instanceof Pbyte && ((Pbyte) inst).byteChar != 0) {
+			return new byte[] { (byte) ((Pbyte) inst).byteChar };
+		}
+		if (inst instanceof Pstr) {
+			return ((Pstr) inst).utf8;
+		}
+		return null;
+	}
+
+	/* Ialt (Pbyte|Pset|Pstr) Isucc, or Ialt Idfa ... Iupdate */
+	private PAsmInst fuseAlt(Ialt alt) {
+		PAsmInst m = alt.next;
+		if (m instanceof Idfa) {
+			this.fuseLoop((Idfa) m);
+			return null;
+		}
+		if (this.only(m) && m.next instanceof Isucc && this.only(m.next)) {
+			if (m instanceof Pbyte) {
+				return new Abyte(((Pbyte) this.consume(m)).byteChar, this.consume(m.next).next, alt.jump);
+			}
+			if (m instanceof Pset) {
+				return new Aset(((Pset) this.consume(m)).bits, this.consume(m.next).next, alt.jump);
+			}
+			if (m instanceof Pstr) {
+				return new Astr(((Pstr) this.consume(m)).utf8, this.consume(m.next).next, alt.jump);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * An Idfa that starts a repetition (entered only by its Ialt and its
+	 * Iupdate) finds the failure frame at the current position, which Rdfa
+	 * relies on.
+	 */
+	private void fuseLoop(Idfa dfa) {
+		Integer n = this.refs.get(dfa);
+		if (n == null || n != 2 || this.fused.containsKey(dfa) || this.consumed.containsKey(dfa)) {
+			return;
+		}
+		PAsmInst loop = null;
+		for (PAsmInst br : dfa.jumpTable) {
+			if (br instanceof Iupdate && br.next == dfa) {
+				loop = br;
+			}
+		}
+		int[] bits = new int[8];
+		for (int c = 0; c < 256; c++) {
+			if (loop != null && dfa.jumpTable[dfa.jumpIndex[c] & 0xff] == loop) {
+				bits[c / 32] |= (1 << (c % 32));
+			}
+		}
+		if (loop != null && !PAsmAPI.bitis(bits, 0)) { // stops at the end of input
+			this.fused.put(dfa, new Rdfa(dfa.jumpIndex, dfa.jumpTable, loop, bits));
+			this.consume(dfa);
+		}
+	}
+
+	/* Tbegin [Pstr] Tend */
+	private PAsmInst fuseLeaf(Tbegin begin) {
+		PAsmInst m = begin.next;
+		byte[] utf8 = null;
+		if (m instanceof Pstr && this.only(m)) {
+			utf8 = ((Pstr) m).utf8;
+			m = m.next;
+		}
+		if (m instanceof Tend && this.only(m)) {
+			if (utf8 != null) {
+				this.consume(begin.next);
+			}
+			Tend end = (Tend) this.consume(m);
+			return new Tleaf(begin.shift, utf8, end.tag, end.value, end.shift, end.next);
+		}
+		return null;
+	}
+
+	private final static HashSet<Class<?>> inlinable = new HashSet<>(Arrays.asList(Pbyte.class, Pset.class,
+			Pstr.class, Pany.class, Pis.class, Pbis.class, Neof.class, Peof.class, Nstr.class, Obyte.class,
+			Oset.class, Obin.class, Ostr.class, Rbyte.class, Rset.class, Rbin.class, Rstr.class, Rbyte1.class,
+			Rset1.class, Ttag.class, Tvalue.class, Tleaf.class));
+
+	/* copies a production body of a few straight-line instructions */
+	private PAsmInst inline(Icall call) {
+		ArrayList<PAsmInst> body = new ArrayList<>();
+		PAsmInst inst = call.jump;
+		while (!(inst instanceof Iret)) {
+			if (inst == null || body.size() == MaxInline || !inlinable.contains(inst.getClass())) {
+				return null;
+			}
+			body.add(inst);
+			inst = inst.next;
+		}
+		PAsmInst next = call.next;
+		for (int i = body.size() - 1; i >= 0; i--) {
+			PAsmInst copy = body.get(i).copy();
+			copy.next = next;
+			next = copy;
+		}
+		return next;
+	}
+
+	/* redirects every reference to the replaced instructions to their replacement */
+	void replaceAll(Map<PAsmInst, PAsmInst> replaced) throws IllegalAccessException {
+		this.fused.clear();
+		this.fused.putAll(replaced);
+		if (this.fused.size() > 0) {
+			this.relink();
+		}
+	}
+
+	private boolean only(PAsmInst inst) {
+		Integer n = this.refs.get(inst);
+		return n != null && n == 1 && !this.fused.containsKey(inst) && !this.consumed.containsKey(inst);
+	}
+
+	private PAsmInst consume(PAsmInst inst) {
+		this.consumed.put(inst, inst);
+		return inst;
+	}
+
+	/* references */
+
+	private void countRefs() throws IllegalAccessException {
+		this.refs.clear();
+		for (PAsmInst inst : this.code.codeList()) {
+			for (Field f : this.fields(inst)) {
+				Object v = f.get(inst);
+				if (v instanceof PAsmInst) {
+					this.ref((PAsmInst) v);
+				} else if (v instanceof PAsmInst[]) {
+					for (PAsmInst br : (PAsmInst[]) v) {
+						this.ref(br);
+					}
+				}
+			}
+		}
+		for (PAsmInst inst : this.code.codeMap.values()) {
+			this.ref(inst);
+		}
+	}
+
+	private void ref(PAsmInst inst) {
+		Integer n = this.refs.get(inst);
+		this.refs.put(inst, n == null ? 1 : n + 1);
+	}
+
+	private PAsmInst resolve(PAsmInst inst) {
+		PAsmInst f = this.fused.get(inst);
+		while (f != null) {
+			inst = f;
+			f = this.fused.get(inst);
+		}
+		return inst;
+	}
+
+	/* redirects every reference to a fused instruction and lays out the code again */
+	private void relink() throws IllegalAccessException {
+		List<PAsmInst> codeList = this.code.codeList();
+		ArrayList<PAsmInst> insts = new ArrayList<>(codeList);
+		insts.addAll(this.fused.values());
+		for (PAsmInst inst : insts) {
+			for (Field f : this.fields(inst)) {
+				Object v = f.get(inst);
+				if (v instanceof PAsmInst) {
+					f.set(inst, this.resolve((PAsmInst) v));
+				} else if (v instanceof PAsmInst[]) {
+					PAsmInst[] a = (PAsmInst[]) v;
+					for (int i = 0; i < a.length; i++) {
+						a[i] = this.resolve(a[i]);
+					}
+				}
+			}
+		}
+		for (String uname : this.code.codeMap.keySet()) {
+			this.code.codeMap.put(uname, this.resolve(this.code.codeMap.get(uname)));
+		}
+		ArrayList<PAsmInst> blocks = new ArrayList<>();
+		for (PAsmInst inst : codeList) {
+			if (inst instanceof Inop) {
+				blocks.add(inst);
+			}
+		}
+		codeList.clear();
+		HashSet<PAsmInst> uniq = new HashSet<>();
+		for (PAsmInst block : blocks) {
+			layout(uniq, codeList, block);
+		}
+	}
+
+	static void layout(HashSet<PAsmInst> uniq, List<PAsmInst> codeList, PAsmInst inst) {
+		if (inst != null && !uniq.contains(inst)) {
+			uniq.add(inst);
+			codeList.add(inst);
+			layout(uniq, codeList, inst.next);
+			for (PAsmInst br : inst.branch()) {
+				layout(uniq, codeList, br);
+			}
+		}
+	}
+
+	private Field[] fields(PAsmInst inst) {
+		Field[] fields = this.fieldMap.get(inst.getClass());
+		if (fields == null) {
+			fields = PAsmCode.linkFields(inst.getClass());
+			this.fieldMap.put(inst.getClass(), fields);
+		}
+		return fields;
+	}
+}
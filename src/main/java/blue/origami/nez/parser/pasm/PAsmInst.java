@@ -16,11 +16,13 @@
 
 package blue.origami.nez.parser.pasm;
 
+import java.io.Serializable;
 import java.lang.reflect.Field;
 
 import blue.origami.util.OStringUtils;
 
-public abstract class PAsmInst extends PAsmAPI {
+@SuppressWarnings("serial")
+public abstract class PAsmInst extends PAsmAPI implements Serializable, Cloneable {
 	public PAsmInst next;
 
 	public PAsmInst(PAsmInst next) {
@@ -66,6 +68,15 @@ public abstract class PAsmInst extends PAsmAPI {
 
 	public abstract PAsmInst exec(PAsmContext sc) throws PAsmTerminationException;
 
+	/* a shallow copy, written in place of the instruction itself */
+	final PAsmInst copy() {
+		try {
+			return (PAsmInst) this.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	private static PAsmInst[] emptyInst = new PAsmInst[0];
 
 	public PAsmInst[] branch() {
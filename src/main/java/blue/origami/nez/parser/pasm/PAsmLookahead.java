@@ -0,0 +1,350 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser.pasm;
+
+import java.util.IdentityHashMap;
+
+/**
+ * A first-set analysis over compiled PAsm code that guards each choice with
+ * the bytes its alternative can start with (up to k bytes ahead), so that an
+ * alternative that cannot match is skipped without pushing a failure frame,
+ * calling productions or building trees.
+ *
+ * The analysis walks every path of the alternative through calls, nested
+ * choices and repetitions (and where their failures jump to) until the path
+ * pops the failure frame of the choice (after which the bytes no longer
+ * decide whether the alternative is taken) or reaches k bytes. Anything it
+ * cannot follow allows any byte.
+ */
+
+class PAsmLookahead {
+	private final static int MaxSteps = 2000;
+
+	private final PAsmCode code;
+	private final int k;
+
+	/* the analysis state of one choice */
+	private final int[][] first;
+	private int choiceAt; // the nearest offset of an inner choice point
+	private int steps;
+
+	PAsmLookahead(PAsmCode code, int k) {
+		this.code = code;
+		this.k = k;
+		this.first = new int[k][];
+	}
+
+	/* returns the number of guarded choices */
+	int guardAll() throws IllegalAccessException {
+		IdentityHashMap<PAsmInst, PAsmInst> guarded = new IdentityHashMap<>();
+		for (PAsmInst inst : this.code.codeList()) {
+			if (inst instanceof Ialt && this.isGuardable(inst.next)) {
+				int[][] first = this.analyze(inst.next);
+				if (first != null) {
+					int choiceAt = Math.min(this.choiceAt, first.length);
+					guarded.put(inst, new Ifirst(first, choiceAt, inst.next, ((Ialt) inst).jump));
+				}
+			}
+		}
+		new PAsmFusion(this.code).replaceAll(guarded);
+		return guarded.size();
+	}
+
+	/*
+	 * An alternative that starts by matching a byte fails as early as the
+	 * guard would (and is fused later); an Idfa starts a repetition.
+	 */
+	private boolean isGuardable(PAsmInst inst) {
+		return !(inst instanceof Pbyte || inst instanceof Pset || inst instanceof Pstr || inst instanceof Pany
+				|| inst instanceof Idfa);
+	}
+
+	/* the byte sets up to the last restricted one, or null */
+	int[][] analyze(PAsmInst inst) {
+		for (int i = 0; i < this.k; i++) {
+			this.first[i] = new int[8];
+		}
+		this.choiceAt = this.k;
+		this.steps = 0;
+		this.walk(inst, 0, null, null, null);
+		if (this.steps > MaxSteps) {
+			return null;
+		}
+		int n = 0;
+		for (int i = 0; i < this.k; i++) {
+			if (this.first[i] != null && !this.isAny(this.first[i])) {
+				n = i + 1;
+			}
+		}
+		if (n == 0) {
+			return null;
+		}
+		int[][] first = new int[n][];
+		for (int i = 0; i < n; i++) {
+			first[i] = this.first[i] == null || this.isAny(this.first[i]) ? null : this.first[i];
+		}
+		return first;
+	}
+
+	private boolean isAny(int[] bits) {
+		for (int b : bits) {
+			if (b != -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* stacks of the walk */
+
+	private static class Frame {
+		final int pos;
+		final PAsmInst jump;
+		final Ret rets;
+		final Pos poss;
+		final Frame prev;
+
+		Frame(int pos, PAsmInst jump, Ret rets, Pos poss, Frame prev) {
+			this.pos = pos;
+			this.jump = jump;
+			this.rets = rets;
+			this.poss = poss;
+			this.prev = prev;
+		}
+	}
+
+	private static class Ret {
+		final PAsmInst next;
+		final Ret prev;
+
+		Ret(PAsmInst next, Ret prev) {
+			this.next = next;
+			this.prev = prev;
+		}
+	}
+
+	private static class Pos {
+		final int pos;
+		final Pos prev;
+
+		Pos(int pos, Pos prev) {
+			this.pos = pos;
+			this.prev = prev;
+		}
+	}
+
+	/* any byte from pos on */
+	private void any(int pos) {
+		for (int i = pos; i < this.k; i++) {
+			this.first[i] = null;
+		}
+	}
+
+	private void add(int pos, int c) {
+		if (pos < this.k && this.first[pos] != null) {
+			this.first[pos][c / 32] |= (1 << (c % 32));
+		}
+	}
+
+	private void add(int pos, int[] bits) {
+		if (pos < this.k && this.first[pos] != null) {
+			for (int i = 0; i < 8; i++) {
+				this.first[pos][i] |= bits[i];
+			}
+		}
+	}
+
+	private void add(int pos, byte[] utf8) {
+		for (int i = 0; i < utf8.length; i++) {
+			this.add(pos + i, utf8[i] & 0xff);
+		}
+	}
+
+	/* a failure frame at pos restores there, which moves the error position */
+	private void choice(int pos) {
+		if (pos > 0 && pos < this.choiceAt) {
+			this.choiceAt = pos;
+		}
+	}
+
+	/*
+	 * Follows a path from pos (bytes ahead of the choice); frames are the
+	 * failure frames pushed since the choice, rets the return addresses and
+	 * poss the saved positions.
+	 */
+	private void walk(PAsmInst inst, int pos, Frame frames, Ret rets, Pos poss) {
+		while (true) {
+			if (++this.steps > MaxSteps) {
+				return;
+			}
+			if (pos >= this.k || (poss == null && this.isAnyFrom(pos))) {
+				return;
+			}
+			if (inst == null) {
+				this.any(pos);
+				return;
+			}
+			if (inst instanceof Pbyte) {
+				this.add(pos, ((Pbyte) inst).byteChar);
+				pos++;
+			} else if (inst instanceof Pset) {
+				this.add(pos, ((Pset) inst).bits);
+				pos++;
+			} else if (inst instanceof Pstr) {
+				this.add(pos, ((Pstr) inst).utf8);
+				pos += ((Pstr) inst).utf8.length;
+			} else if (inst instanceof Pany) {
+				this.first[pos] = null;
+				pos++;
+			} else if (inst instanceof Obyte) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, ((Obyte) inst).byteChar);
+				pos++;
+			} else if (inst instanceof Oset || inst instanceof Obin) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, inst instanceof Oset ? ((Oset) inst).bits : ((Obin) inst).bits);
+				pos++;
+			} else if (inst instanceof Ostr) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, ((Ostr) inst).utf8);
+				pos += ((Ostr) inst).utf8.length;
+			} else if (inst instanceof Rbyte) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, ((Rbyte) inst).byteChar);
+				pos++;
+				continue; // repeats inst
+			} else if (inst instanceof Rset || inst instanceof Rbin) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, inst instanceof Rset ? ((Rset) inst).bits : ((Rbin) inst).bits);
+				pos++;
+				continue;
+			} else if (inst instanceof Rstr) {
+				this.walk(inst.next, pos, frames, rets, poss);
+				this.add(pos, ((Rstr) inst).utf8);
+				pos += ((Rstr) inst).utf8.length;
+				continue;
+			} else if (inst instanceof Idispatch) {
+				Idispatch d = (Idispatch) inst;
+				for (int i = 0; i < d.jumpTable.length; i++) {
+					if (d.jumpTable[i] != null && !this.contains(d.jumpTable, i)) {
+						this.walk(d.jumpTable[i], pos, frames, rets, poss);
+					}
+				}
+				return;
+			} else if (inst instanceof Idfa) {
+				Idfa d = (Idfa) inst;
+				for (int i = 0; i < d.jumpTable.length; i++) {
+					if (d.jumpTable[i] != null && !this.contains(d.jumpTable, i)) {
+						for (int c = 0; c < 256; c++) {
+							if (d.jumpTable[d.jumpIndex[c] & 0xff] == d.jumpTable[i]) {
+								this.add(pos, c);
+							}
+						}
+						this.walk(d.jumpTable[i], pos + 1, frames, rets, poss);
+					}
+				}
+				return;
+			} else if (inst instanceof Ialt || inst instanceof Ifirst) {
+				PAsmInst jump = inst instanceof Ialt ? ((Ialt) inst).jump : ((Ifirst) inst).jump;
+				this.choice(pos);
+				this.walk(inst.next, pos, new Frame(pos, jump, rets, poss, frames), rets, poss);
+				inst = jump;
+				continue;
+			} else if (inst instanceof Isucc || inst instanceof Mmemo) {
+				if (frames == null) { // the choice is decided
+					this.any(pos);
+					return;
+				}
+				frames = frames.prev;
+			} else if (inst instanceof Iupdate || inst instanceof Iguard) {
+				if (frames == null) {
+					this.any(pos);
+					return;
+				}
+				if (frames.pos == pos) { // fails without progress
+					return;
+				}
+				// a later failure jumps from here
+				this.walk(frames.jump, pos, frames.prev, frames.rets, frames.poss);
+				this.choice(pos);
+				frames = new Frame(pos, frames.jump, frames.rets, frames.poss, frames.prev);
+			} else if (inst instanceof Ifail || inst instanceof Mmemof) {
+				return;
+			} else if (inst instanceof Icall) {
+				rets = new Ret(inst.next, rets);
+				inst = ((Icall) inst).jump;
+				continue;
+			} else if (inst instanceof Iret) {
+				if (rets == null) {
+					this.any(pos);
+					return;
+				}
+				inst = rets.next;
+				rets = rets.prev;
+				continue;
+			} else if (inst instanceof Ijump) {
+				inst = ((Ijump) inst).jump;
+				continue;
+			} else if (inst instanceof Ppush) {
+				poss = new Pos(pos, poss);
+			} else if (inst instanceof Ppop) {
+				if (poss == null) {
+					this.any(0);
+					return;
+				}
+				pos = poss.pos;
+				poss = poss.prev;
+			} else if (inst instanceof Sdef) {
+				poss = poss == null ? null : poss.prev;
+			} else if (!this.isTransparent(inst)) {
+				this.any(pos);
+				return;
+			}
+			inst = inst.next;
+		}
+	}
+
+	/* whether the branch appears earlier in the table */
+	private boolean contains(PAsmInst[] jumpTable, int i) {
+		for (int j = 0; j < i; j++) {
+			if (jumpTable[j] == jumpTable[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isAnyFrom(int pos) {
+		for (int i = pos; i < this.k; i++) {
+			if (this.first[i] != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* instructions that neither move the position nor change frames */
+	private boolean isTransparent(PAsmInst inst) {
+		return inst.next != null && (inst instanceof Pis || inst instanceof Pbis || inst instanceof Neof
+				|| inst instanceof Nstr || inst instanceof Tbegin || inst instanceof Tend || inst instanceof Ttag
+				|| inst instanceof Tvalue || inst instanceof Tpush || inst instanceof Tpop || inst instanceof Tlink
+				|| inst instanceof Tfold || inst instanceof Temit || inst instanceof Spush || inst instanceof Spop
+				|| inst instanceof Sdefe || inst instanceof Itrap || inst instanceof Inop || inst instanceof Mfindpos
+				|| inst instanceof Mfindtree);
+	}
+}
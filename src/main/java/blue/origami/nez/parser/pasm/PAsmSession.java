@@ -0,0 +1,69 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ParserCode;
+import blue.origami.nez.parser.ParserGrammar;
+import blue.origami.nez.parser.pasm.PAsmAPI.PAsmContext;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeFunc;
+import blue.origami.nez.parser.pasm.PAsmAPI.TreeSetFunc;
+
+/**
+ * PAsmSession owns one PAsmContext and resets it in place on every call. A
+ * session is not thread-safe; each thread should create its own.
+ */
+
+class PAsmSession implements ParserCode {
+	private final PAsmCode code;
+	private final PAsmContext px;
+
+	PAsmSession(PAsmCode code) {
+		this.code = code;
+		this.px = new PAsmContext(null, 0, null, null);
+	}
+
+	@Override
+	public ParserGrammar getParserGrammar() {
+		return this.code.getParserGrammar();
+	}
+
+	@Override
+	public int match(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) {
+		return this.code.match(this.px, s, pos, newTree, linkTree);
+	}
+
+	@Override
+	public Object parse(Source s, int pos, TreeFunc newTree, TreeSetFunc linkTree) throws IOException {
+		return this.code.parse(this.px, s, pos, newTree, linkTree);
+	}
+
+	@Override
+	public long parseEach(Source s, int pos, int end, TreeFunc newTree, TreeSetFunc linkTree, Consumer<Object> emit)
+			throws IOException {
+		return this.code.parseEach(this.px, s, pos, end, newTree, linkTree, emit);
+	}
+
+	@Override
+	public ParserCode newSession() {
+		return this.code.newSession();
+	}
+
+}
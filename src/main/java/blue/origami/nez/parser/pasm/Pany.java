@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Pany extends PAsmInst {
 	public Pany(PAsmInst next) {
 		super(next);
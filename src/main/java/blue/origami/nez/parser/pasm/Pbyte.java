@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public class Pbyte extends PAsmInst {
 	public final int byteChar;
 
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Peof extends PAsmInst {
 
 	public Peof(PAsmInst next) {
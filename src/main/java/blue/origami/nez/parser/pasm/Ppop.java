@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Ppop extends PAsmInst {
 	public Ppop(PAsmInst next) {
 		super(next);
@@ -23,7 +24,7 @@ public final class Ppop extends PAsmInst {
 
 	@Override
 	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
-		popPos(px);
+		px.pos = popPos(px);
 		return this.next;
 	}
 
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Ppush extends PAsmInst {
 	public Ppush(PAsmInst next) {
 		super(next);
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Pstr extends PAsmInst {
 	public final byte[] utf8;
 
@@ -16,20 +16,36 @@
 
 package blue.origami.nez.parser.pasm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+@SuppressWarnings("serial")
 public class Rbyte extends PAsmInst {
 	public final int byteChar;
+	transient ByteScanner scanner; // rebuilt by readObject
 
 	public Rbyte(int byteChar, PAsmInst next) {
 		super(next);
 		this.byteChar = byteChar;
+		this.scanner = ByteScanner.of(byteChar);
 		assert (byteChar != 0);
 	}
 
 	@Override
 	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
-		while (getbyte(px) == this.byteChar) {
+		if (getbyte(px) == this.byteChar) { // most runs are short
 			move(px, 1);
+			if (getbyte(px) == this.byteChar) {
+				scan(px, this.scanner);
+			}
 		}
 		return this.next;
 	}
-}
\ No newline at end of file
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.byteChar);
+	}
+}
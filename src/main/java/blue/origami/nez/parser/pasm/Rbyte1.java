@@ -0,0 +1,55 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+/**
+ * Pbyte and Rbyte on the same byte fused: one or more repetitions.
+ */
+
+@SuppressWarnings("serial")
+public final class Rbyte1 extends PAsmInst {
+	public final int byteChar;
+	transient ByteScanner scanner; // rebuilt by readObject
+
+	public Rbyte1(int byteChar, PAsmInst next) {
+		super(next);
+		this.byteChar = byteChar;
+		this.scanner = ByteScanner.of(byteChar);
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		if (getbyte(px) != this.byteChar) {
+			return raiseFail(px);
+		}
+		move(px, 1);
+		if (getbyte(px) == this.byteChar) {
+			scan(px, this.scanner);
+		}
+		return this.next;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.byteChar);
+	}
+}
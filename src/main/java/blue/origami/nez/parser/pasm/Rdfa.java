@@ -0,0 +1,66 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser.pasm;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+/**
+ * Idfa and the Iupdate of its repetition fused: the bytes whose branch is the
+ * Iupdate (and so the Idfa itself again) are skipped with a scanning kernel.
+ */
+
+@SuppressWarnings("serial")
+public final class Rdfa extends PAsmInst {
+	public final byte[] jumpIndex;
+	public final PAsmInst[] jumpTable;
+	public final PAsmInst loop;
+	public final int[] bits; // the loop bytes
+	transient ByteScanner scanner; // rebuilt by readObject
+
+	public Rdfa(byte[] jumpIndex, PAsmInst[] jumpTable, PAsmInst loop, int[] bits) {
+		super(null);
+		this.jumpIndex = jumpIndex;
+		this.jumpTable = jumpTable;
+		this.loop = loop;
+		this.bits = bits;
+		this.scanner = ByteScanner.of(bits);
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		int pos = px.pos;
+		scan(px, this.scanner);
+		if (px.pos != pos) {
+			updateFail(px, this); // as the skipped Iupdates would do
+		}
+		return this.jumpTable[this.jumpIndex[nextbyte(px)] & 0xff];
+	}
+
+	@Override
+	public PAsmInst[] branch() {
+		return this.jumpTable;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.bits);
+	}
+}
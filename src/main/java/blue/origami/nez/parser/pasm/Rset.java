@@ -16,20 +16,35 @@
 
 package blue.origami.nez.parser.pasm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+@SuppressWarnings("serial")
 public class Rset extends PAsmInst {
 	public final int[] bits;
+	transient ByteScanner scanner; // rebuilt by readObject
 
 	public Rset(int[] bits, PAsmInst next) {
 		super(next);
 		this.bits = bits;
+		this.scanner = ByteScanner.of(bits);
 	}
 
 	@Override
 	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
-		while (bitis(this.bits, getbyte(px))) {
+		if (bitis(this.bits, getbyte(px))) { // most runs are short
 			move(px, 1);
+			if (bitis(this.bits, getbyte(px))) {
+				scan(px, this.scanner);
+			}
 		}
 		return this.next;
 	}
 
-}
\ No newline at end of file
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.bits);
+	}
+}
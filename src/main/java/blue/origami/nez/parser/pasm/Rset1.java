@@ -0,0 +1,55 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+/**
+ * Pset and Rset on the same set fused: one or more repetitions.
+ */
+
+@SuppressWarnings("serial")
+public final class Rset1 extends PAsmInst {
+	public final int[] bits;
+	transient ByteScanner scanner; // rebuilt by readObject
+
+	public Rset1(int[] bits, PAsmInst next) {
+		super(next);
+		this.bits = bits;
+		this.scanner = ByteScanner.of(bits);
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		if (!bitis(this.bits, getbyte(px))) {
+			return raiseFail(px);
+		}
+		move(px, 1);
+		if (bitis(this.bits, getbyte(px))) {
+			scan(px, this.scanner);
+		}
+		return this.next;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.bits);
+	}
+}
@@ -16,19 +16,30 @@
 
 package blue.origami.nez.parser.pasm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import blue.origami.nez.parser.ByteScanner;
+
+@SuppressWarnings("serial")
 public final class Rstr extends PAsmInst {
 	public final byte[] utf8;
+	transient ByteScanner scanner; // rebuilt by readObject
 
 	public Rstr(byte[] byteSeq, PAsmInst next) {
 		super(next);
 		this.utf8 = byteSeq;
+		this.scanner = ByteScanner.of(byteSeq);
 	}
 
 	@Override
 	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
-		while (matchBytes(px, this.utf8)) {
-		}
+		scan(px, this.scanner);
 		return this.next;
 	}
 
-}
\ No newline at end of file
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.scanner = ByteScanner.of(this.utf8);
+	}
+}
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Spop extends PAsmInst {
 	public Spop(PAsmInst next) {
 		super(next);
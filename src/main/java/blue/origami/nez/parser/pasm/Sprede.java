@@ -18,6 +18,7 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.ast.Symbol;
 
+@SuppressWarnings("serial")
 public final class Sprede extends PAsmInst {
 	public final Symbol tag;
 	public final SymbolFunc pred;
@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Spush extends PAsmInst {
 	public Spush(PAsmInst next) {
 		super(next);
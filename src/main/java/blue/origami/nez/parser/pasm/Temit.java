@@ -18,6 +18,7 @@ package blue.origami.nez.parser.pasm;
 
 import blue.origami.nez.ast.Symbol;
 
+@SuppressWarnings("serial")
 public final class Temit extends PAsmInst {
 	public final Symbol label;
 
@@ -0,0 +1,53 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package blue.origami.nez.parser.pasm;
+
+import blue.origami.nez.ast.Symbol;
+
+/**
+ * Tbegin, an optional Pstr and Tend fused: a leaf node, which needs no entry
+ * in the tree log.
+ */
+
+@SuppressWarnings("serial")
+public final class Tleaf extends PAsmInst {
+	public final int beginShift;
+	public final byte[] utf8; // or null
+	public final Symbol tag;
+	public final Object value;
+	public final int endShift;
+
+	public Tleaf(int beginShift, byte[] utf8, Symbol tag, Object value, int endShift, PAsmInst next) {
+		super(next);
+		this.beginShift = beginShift;
+		this.utf8 = utf8;
+		this.tag = tag;
+		this.value = value;
+		this.endShift = endShift;
+	}
+
+	@Override
+	public PAsmInst exec(PAsmContext px) throws PAsmTerminationException {
+		int pos = px.pos;
+		if (this.utf8 != null && !matchBytes(px, this.utf8)) {
+			return raiseFail(px);
+		}
+		px.tree = px.newFunc.apply(this.tag, px.s, pos + this.beginShift, px.pos + this.endShift, 0, this.value);
+		return this.next;
+	}
+
+}
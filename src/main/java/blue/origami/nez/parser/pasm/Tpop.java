@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Tpop extends PAsmInst {
 
 	public Tpop(PAsmInst next) {
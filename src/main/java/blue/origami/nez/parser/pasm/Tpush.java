@@ -16,6 +16,7 @@
 
 package blue.origami.nez.parser.pasm;
 
+@SuppressWarnings("serial")
 public final class Tpush extends PAsmInst {
 	public Tpush(PAsmInst next) {
 		super(next);
@@ -0,0 +1,186 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package blue.origami.nez.parser.pass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import blue.origami.nez.peg.Expression;
+import blue.origami.nez.peg.expression.PAny;
+import blue.origami.nez.peg.expression.PByte;
+import blue.origami.nez.peg.expression.PByteSet;
+import blue.origami.nez.peg.expression.PChoice;
+import blue.origami.nez.peg.expression.PTag;
+import blue.origami.nez.peg.expression.PTree;
+import blue.origami.nez.peg.expression.PValue;
+
+/**
+ * Factors the common leading sequence out of adjacent alternatives:
+ * {@code P A / P B} is rewritten to {@code P (A / B)}, so P is not matched
+ * again after A fails. A parsing expression matches the same input (with the
+ * same trees and states) at the same position, and the inner choice backtracks
+ * to the end of P, so the ordered choice is kept.
+ *
+ * Adjacent trees that differ only in their tag or value,
+ * {@code {P A #T} / {P B #U}}, are factored to {@code {P (A #T / B #U)}}.
+ */
+
+public class LeftFactorPass extends CommonPass {
+
+	@Override
+	public Expression visitChoice(PChoice choice, Void a) {
+		super.visitChoice(choice, a);
+		List<Expression> l = Expression.newList(choice.size());
+		Expression.addChoice(l, choice);
+		List<Expression> factored = this.factor(l);
+		if (factored.size() < l.size()) {
+			return this.optimized(choice, Expression.newChoice(factored));
+		}
+		return choice;
+	}
+
+	private List<Expression> factor(List<Expression> l) {
+		List<Expression> factored = Expression.newList(l.size());
+		int i = 0;
+		while (i < l.size()) {
+			int j = i + 1;
+			Expression first = this.first(l.get(i));
+			while (j < l.size() && this.isSame(first, this.first(l.get(j)))) {
+				j++;
+			}
+			if (j - i > 1) {
+				Expression e = this.factorPrefix(l.subList(i, j));
+				if (e != null) {
+					factored.add(e);
+				} else {
+					factored.addAll(l.subList(i, j));
+				}
+				i = j;
+				continue;
+			}
+			while (j < l.size() && this.isSameTree(l.get(i), l.get(j))) {
+				j++;
+			}
+			if (j - i > 1) {
+				Expression e = this.factorTree(l.subList(i, j));
+				if (e != null) {
+					factored.add(e);
+				} else {
+					factored.addAll(l.subList(i, j));
+				}
+				i = j;
+				continue;
+			}
+			factored.add(l.get(i));
+			i++;
+		}
+		return factored;
+	}
+
+	/* the leading expression of a sequence, or null if empty */
+	private Expression first(Expression e) {
+		List<Expression> seq = Expression.newList(4);
+		Expression.addSequence(seq, e);
+		return seq.size() == 0 ? null : seq.get(0);
+	}
+
+	private boolean isSame(Expression e, Expression e2) {
+		return e != null && e2 != null && e.equals(e2);
+	}
+
+	/*
+	 * P A / P B / ... => P (A / B / ...) with the longest common P, or null if
+	 * P is a few characters, which DispatchPass already factors into a byte trie
+	 */
+	private Expression factorPrefix(List<Expression> alts) {
+		List<List<Expression>> seqs = new ArrayList<>(alts.size());
+		int len = Integer.MAX_VALUE;
+		for (Expression e : alts) {
+			List<Expression> seq = Expression.newList(8);
+			Expression.addSequence(seq, e);
+			seqs.add(seq);
+			len = Math.min(len, seq.size());
+		}
+		List<Expression> first = seqs.get(0);
+		int n = 1;
+		for (; n < len; n++) {
+			for (List<Expression> seq : seqs) {
+				if (!first.get(n).equals(seq.get(n))) {
+					return this.newPrefix(first, n, seqs);
+				}
+			}
+		}
+		return this.newPrefix(first, n, seqs);
+	}
+
+	private Expression newPrefix(List<Expression> first, int n, List<List<Expression>> seqs) {
+		if (this.isCharacters(first.subList(0, n))) {
+			return null;
+		}
+		List<Expression> rests = Expression.newList(seqs.size());
+		for (List<Expression> seq : seqs) {
+			Expression.addChoice(rests, Expression.newSequence(seq.subList(n, seq.size())));
+		}
+		List<Expression> l = Expression.newList(n + 1);
+		l.addAll(first.subList(0, n));
+		l.add(Expression.newChoice(this.factor(rests)));
+		return Expression.newSequence(l);
+	}
+
+	private boolean isCharacters(List<Expression> l) {
+		for (Expression e : l) {
+			if (!(e instanceof PByte || e instanceof PByteSet || e instanceof PAny)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* trees that begin and end at the same shifts, and whose inners start alike */
+	private boolean isSameTree(Expression e, Expression e2) {
+		if (e instanceof PTree && e2 instanceof PTree) {
+			PTree t = (PTree) e;
+			PTree t2 = (PTree) e2;
+			return t.folding == t2.folding && (t.label == null ? t2.label == null : t.label.equals(t2.label))
+					&& t.beginShift == t2.beginShift && t.endShift == t2.endShift
+					&& this.isSame(this.first(t.get(0)), this.first(t2.get(0)));
+		}
+		return false;
+	}
+
+	/* {P A #T} / {P B #U} => {P (A #T / B #U)}; the last tag (value) of a tree is its tag (value) */
+	private Expression factorTree(List<Expression> alts) {
+		List<Expression> inners = Expression.newList(alts.size());
+		for (Expression e : alts) {
+			PTree t = (PTree) e;
+			List<Expression> seq = Expression.newList(8);
+			Expression.addSequence(seq, t.get(0));
+			if (t.value != null) {
+				seq.add(new PValue(t.value));
+			}
+			if (t.tag != null) {
+				seq.add(new PTag(t.tag));
+			}
+			inners.add(Expression.newSequence(seq));
+		}
+		PTree t = (PTree) alts.get(0);
+		Expression inner = this.factorPrefix(inners);
+		return inner == null ? null : new PTree(t.folding, t.label, t.beginShift, inner, null, null, t.endShift);
+	}
+
+}
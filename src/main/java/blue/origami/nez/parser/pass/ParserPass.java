@@ -35,7 +35,8 @@ public abstract class ParserPass extends Rewriter<Void> {
 		if (pass.length > 0) {
 			return applyPass(g, options, loadPassClass(pass, options));
 		} else {
-			return applyPass(g, options, NotCharPass.class, TreePass.class, DispatchPass.class, InlinePass.class);
+			return applyPass(g, options, NotCharPass.class, TreePass.class, LeftFactorPass.class, DispatchPass.class,
+					InlinePass.class);
 		}
 	}
 
@@ -16,11 +16,13 @@
 
 package blue.origami.util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 
@@ -41,7 +43,7 @@ public class OCommonWriter {
 	public void open(String path) throws IOException {
 		this.close();
 		if (path != null) {
-			this.out = new PrintStream(new FileOutputStream(path));
+			this.out = new PrintStream(new BufferedOutputStream(new FileOutputStream(path)));
 			OConsole.println("writing %s ...", path);
 			this.isColor = false;
 		} else {
@@ -62,6 +64,11 @@ public class OCommonWriter {
 		this.out.flush();
 	}
 
+	/* for writers that emit bytes rather than text */
+	protected final OutputStream getOutputStream() {
+		return this.out;
+	}
+
 	/* print */
 
 	private char lastChar = '\n';
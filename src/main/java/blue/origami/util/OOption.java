@@ -56,6 +56,19 @@ public class OOption {
 		}
 	}
 
+	/**
+	 * Returns an option set that starts with the same values and classes.
+	 */
+
+	public OOption copy() {
+		OOption o = new OOption();
+		o.valueMap.putAll(this.valueMap);
+		o.classMap.putAll(this.classMap);
+		o.verboseMode = this.verboseMode;
+		o.log = this.log;
+		return o;
+	}
+
 	public OOptionKey checkKeyName(String t, OOptionKey... keys) {
 		for (OOptionKey k : keys) {
 			OOptionKey r = k.keyOf(t);
@@ -152,7 +165,8 @@ public class OOption {
 	}
 
 	public void setClass(String path) throws Throwable {
-		Class<?> c = loadClass(OptionalFactory.class, path, "blue.origami.main.tool", "blue.origami.nezcc");
+		Class<?> c = loadClass(OptionalFactory.class, path, "blue.origami.main.tool", "blue.origami.nezcc",
+				"blue.origami.nez.parser.pasm");
 		OptionalFactory<?> f = (OptionalFactory<?>) c.newInstance();
 		this.classMap.put(f.keyClass(), f);
 	}
@@ -175,19 +189,7 @@ public class OOption {
 
 	// Logging
 
-	static enum VerboseOption implements OOptionKey {
-		SourceLogger;
-
-		@Override
-		public String toString() {
-			return this.name();
-		}
-
-		@Override
-		public OOptionKey keyOf(String key) {
-			return VerboseOption.valueOf(key);
-		}
-	}
+	private SourceLogger log = null; // created on the first report
 
 	public final void reportError(SourcePosition s, String fmt, Object... args) {
 		// if (error() >= 1) {
@@ -207,13 +209,12 @@ public class OOption {
 		// }
 	}
 
-	private SourceLogger log() {
-		SourceLogger log = this.get(VerboseOption.SourceLogger);
-		if (log == null) {
-			log = new SourceLogger.SimpleSourceLogger();
-			this.set(VerboseOption.SourceLogger, log);
+	/* not kept in the value map, which parsing threads read concurrently */
+	private synchronized SourceLogger log() {
+		if (this.log == null) {
+			this.log = new SourceLogger.SimpleSourceLogger();
 		}
-		return log;
+		return this.log;
 	}
 
 	public final void reportError(SourcePosition s, LocaleFormat fmt, Object... args) {
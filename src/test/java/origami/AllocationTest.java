@@ -0,0 +1,150 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.transpiler.Transpiler;
+import blue.origami.util.OOption;
+
+public class AllocationTest {
+
+	private void listSources(File dir, List<Source> l) throws Throwable {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			if (f.isDirectory()) {
+				this.listSources(f, l);
+			} else if (f.getName().endsWith(".java")) {
+				l.add(ParserSource.newStringSource(new String(Files.readAllBytes(f.toPath()), "UTF-8")));
+			}
+		}
+	}
+
+	private long allocatedBytes(com.sun.management.ThreadMXBean bean, Parser p, List<Source> l) {
+		long t = Thread.currentThread().getId();
+		long start = bean.getThreadAllocatedBytes(t);
+		for (int i = 0; i < l.size(); i++) {
+			p.match(l.get(i));
+		}
+		return bean.getThreadAllocatedBytes(t) - start;
+	}
+
+	public void testSteadyStateMatch() throws Throwable {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!bean.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		bean.setThreadAllocatedMemoryEnabled(true);
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/java.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		Parser p = g.newParser(options);
+		List<Source> l = new ArrayList<>();
+		this.listSources(new File(System.getProperty("basedir", "."), "src/main/java/blue/origami/nez"), l);
+		assert l.size() > 0 : "no sources";
+		this.allocatedBytes(bean, p, l); // warm up
+		long bytes = this.allocatedBytes(bean, p, l);
+		System.out.printf("java.opeg: %d sources, %d bytes allocated%n", l.size(), bytes);
+		assert bytes < 1024 : bytes;
+	}
+
+	/* counts the token texts that consumers decode from the source */
+	static class CountingSource extends ParserSource {
+		private final Source base;
+		int decoded = 0;
+
+		CountingSource(Source base) {
+			super(base.getResourceName(), 1);
+			this.base = base;
+		}
+
+		@Override
+		public long length() {
+			return this.base.length();
+		}
+
+		@Override
+		public int byteAt(long pos) {
+			return this.base.byteAt(pos);
+		}
+
+		@Override
+		public boolean eof(long pos) {
+			return this.base.eof(pos);
+		}
+
+		@Override
+		public boolean match(long pos, byte[] text) {
+			return this.base.match(pos, text);
+		}
+
+		@Override
+		public String subString(long startIndex, long endIndex) {
+			this.decoded++;
+			return this.base.subString(startIndex, endIndex);
+		}
+
+		@Override
+		public byte[] subBytes(long startIndex, long endIndex) {
+			this.decoded++;
+			return this.base.subBytes(startIndex, endIndex);
+		}
+
+		@Override
+		public long linenum(long pos) {
+			return this.base.linenum(pos);
+		}
+	}
+
+	private int countTokens(Tree<?> t) {
+		int c = t.size() == 0 ? 1 : 0;
+		for (int i = 0; i < t.size(); i++) {
+			c += this.countTokens(t.get(i));
+		}
+		return c;
+	}
+
+	public void testTranspilerTokenText() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/konoha5.opeg");
+		Source s = ParserSource.newFileSource(AllocationTest.class, "/konoha5-test/fib.k", null);
+		int tokens = this.countTokens(g.newParser().parse(s));
+		Transpiler env = new Transpiler(g, "python3", new OOption());
+		CountingSource cs = new CountingSource(s);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long start = bean.isThreadAllocatedMemorySupported() ? bean.getThreadAllocatedBytes(id) : 0;
+		assert env.loadScriptFile(cs);
+		long bytes = bean.isThreadAllocatedMemorySupported() ? bean.getThreadAllocatedBytes(id) - start : 0;
+		System.out.printf("transpiler: %d tokens, %d texts decoded, %d bytes allocated%n", tokens, cs.decoded, bytes);
+		/* printing the tree and the rules read the same tokens; each is decoded once */
+		assert cs.decoded <= tokens : cs.decoded;
+	}
+
+}
@@ -0,0 +1,111 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ByteScanner;
+import blue.origami.nez.parser.MmapSource;
+import blue.origami.nez.parser.StringSource;
+import blue.origami.nez.peg.expression.ByteSet;
+
+public class ByteScannerTest {
+
+	private static int[] bits(String chars, boolean negated) {
+		ByteSet bs = new ByteSet();
+		for (int c = 1; c < 256; c++) {
+			if ((chars.indexOf(c) >= 0) != negated) {
+				bs.set(c, true);
+			}
+		}
+		return bs.bits();
+	}
+
+	private static int[][] classes() {
+		return new int[][] { bits(" ", false), bits(" \t\r\n", false), bits("\"\\", true), bits("\n", true),
+				bits("abcdefghijklmnopqrstuvwxyz_0123456789", false) };
+	}
+
+	private static byte[] random(Random r, int size) {
+		byte[] alphabet = " \t\n\"\\ab_9xyz".getBytes();
+		byte[] b = new byte[size];
+		for (int i = 0; i < size; i++) {
+			b[i] = alphabet[r.nextInt(r.nextBoolean() ? 2 : alphabet.length)];
+		}
+		return b;
+	}
+
+	/* the byte-at-a-time loop of Rset */
+	private static long naive(int[] bits, Source s, long pos) {
+		while ((bits[s.byteAt(pos) / 32] & (1 << (s.byteAt(pos) % 32))) != 0) {
+			pos++;
+		}
+		return pos;
+	}
+
+	public void testSets() {
+		Random r = new Random(1);
+		for (int[] bits : classes()) {
+			ByteScanner scanner = ByteScanner.of(bits);
+			for (int n = 0; n < 50; n++) {
+				Source s = new StringSource("r", 1, random(r, r.nextInt(100)), false);
+				for (long pos = 0; pos <= s.length(); pos++) {
+					long expected = naive(bits, s, pos);
+					assert scanner.scanSource(s, pos) == expected : scanner.getClass() + " " + pos;
+					assert scanner.scan(s, pos) == expected : pos;
+				}
+			}
+		}
+	}
+
+	public void testStr() {
+		Source s = new StringSource("abababab abcabcab" + "ab");
+		ByteScanner ab = ByteScanner.of("ab".getBytes());
+		assert ab.scanSource(s, 0) == 8;
+		assert ab.scanSource(s, 1) == 1;
+		assert ab.scanSource(s, 17) == 19;
+		ByteScanner abc = ByteScanner.of("abc".getBytes());
+		assert abc.scanSource(s, 9) == 15;
+		assert abc.scan(s, 9) == 15;
+	}
+
+	public void testMmapChunks() throws Throwable {
+		Random r = new Random(2);
+		File f = File.createTempFile("scan", ".txt");
+		f.deleteOnExit();
+		byte[] b = random(r, 5000);
+		Files.write(f.toPath(), b);
+		Source expected = new StringSource("r", 1, b, false);
+		for (int chunkBits : new int[] { 4, 7, 12 }) {
+			MmapSource s = new MmapSource(f.getPath(), chunkBits);
+			for (int[] bits : classes()) {
+				ByteScanner scanner = ByteScanner.of(bits);
+				for (long pos = 0; pos <= s.length(); pos += 3) {
+					assert scanner.scanSource(s, pos) == naive(bits, expected, pos) : chunkBits + " " + pos;
+				}
+			}
+			ByteScanner str = ByteScanner.of(" \t".getBytes());
+			for (long pos = 0; pos <= s.length(); pos++) {
+				assert str.scanSource(s, pos) == str.scan(expected, pos) : chunkBits + " " + pos;
+			}
+		}
+	}
+}
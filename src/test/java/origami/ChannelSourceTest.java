@@ -0,0 +1,119 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ChannelSource;
+import blue.origami.nez.parser.ChannelSource.ReleasedInputException;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.StringSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ChannelSourceTest {
+
+	/* delivers at most 7 bytes per read */
+	static class TrickleChannel implements ReadableByteChannel {
+		private final byte[] data;
+		private int pos = 0;
+
+		TrickleChannel(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (this.pos == this.data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(7, dst.remaining()), this.data.length - this.pos);
+			dst.put(this.data, this.pos, n);
+			this.pos += n;
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public void testSource() throws Throwable {
+		byte[] b = Files.readAllBytes(new File("pom.xml").toPath());
+		Source expected = new StringSource("pom.xml", 1, b, false);
+		Source s = new ChannelSource("pom.xml", new TrickleChannel(b), 16);
+		byte[] text = expected.subBytes(10, 30);
+		for (long pos = 0; pos + 20 <= b.length; pos += 7) {
+			assert expected.match(pos, text) == s.match(pos, text) : pos;
+			assert expected.subString(pos, pos + 20).equals(s.subString(pos, pos + 20)) : pos;
+			assert expected.linenum(pos) == s.linenum(pos) : pos;
+		}
+		for (long pos = 0; pos <= b.length; pos++) {
+			assert expected.byteAt(pos) == s.byteAt(pos) : pos;
+			assert expected.eof(pos) == s.eof(pos) : pos;
+		}
+		assert s.length() == b.length;
+	}
+
+	public void testParse() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		Parser p = g.newParser(options);
+		byte[] b = Files.readAllBytes(new File("pom.xml").toPath());
+		String expected = "" + p.parse(new StringSource("pom.xml", 1, b, false));
+		assert expected.equals("" + p.parse(new ChannelSource("pom.xml", new TrickleChannel(b), 64)));
+	}
+
+	public void testStreamingMatch() throws Throwable {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append(i + ",Ford,\"E350, ac\"," + (i * 7) + ".00\n");
+		}
+		byte[] b = sb.toString().getBytes();
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		Parser p = g.newParser(new OOption());
+		ChannelSource s = new ChannelSource("stream.csv", new TrickleChannel(b), 256);
+		assert p.match(s) == b.length;
+		assert s.capacity() < 4096 : s.capacity();
+		assert s.releasedPosition() > 0;
+	}
+
+	public void testReleased() throws Throwable {
+		byte[] b = Files.readAllBytes(new File("pom.xml").toPath());
+		ChannelSource s = new ChannelSource("pom.xml", new TrickleChannel(b), 16);
+		assert s.byteAt(200) == (b[200] & 0xff);
+		s.release(100);
+		assert s.byteAt(100) == (b[100] & 0xff);
+		try {
+			s.byteAt(99);
+			assert false;
+		} catch (ReleasedInputException e) {
+		}
+	}
+
+}
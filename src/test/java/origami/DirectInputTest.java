@@ -0,0 +1,60 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class DirectInputTest {
+
+	private static final String[] Inputs = { "{\"a\": [1, 2.5, true, null], \"b\": {\"c\": \"d\\n\"}}", "[1, 2", "tru",
+			"\"abc", "", "{\"あ\": \"い\"}  " };
+
+	public void testSameResults() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		for (String compiler : new String[] { null, "AsmParserCompiler" }) {
+			Parser direct = newParser(g, compiler, true);
+			Parser indirect = newParser(g, compiler, false);
+			for (String input : Inputs) {
+				assert direct.match(input) == indirect.match(input) : input;
+				assert parse(direct, input).equals(parse(indirect, input)) : input;
+			}
+		}
+	}
+
+	private static String parse(Parser p, String input) {
+		try {
+			return String.valueOf(p.parse(input));
+		} catch (IOException e) {
+			return e.toString();
+		}
+	}
+
+	private static Parser newParser(Grammar g, String compiler, boolean direct) {
+		OOption options = new OOption();
+		if (compiler != null) {
+			options.set(ParserOption.Compiler, compiler);
+		}
+		options.set(ParserOption.DirectInput, direct);
+		return g.newParser(options);
+	}
+}
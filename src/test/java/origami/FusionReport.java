@@ -0,0 +1,113 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import blue.origami.main.Oexample;
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.GrammarParser;
+import blue.origami.util.OOption;
+
+/**
+ * Compares the PAsm code of each bundled grammar with and without
+ * superinstruction fusion: the number of instructions (of the largest start
+ * production), and the number of dispatched instructions while matching the
+ * grammar's examples.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.FusionReport [-Dexec.args=json]
+ * </pre>
+ */
+
+public class FusionReport {
+
+	private final static String[] Grammars = { "csv", "email", "java", "js", "json", "kal", "konoha5", "math",
+			"rb" };
+
+	public static void main(String[] args) throws IOException {
+		System.out.println("grammar\tinsts\tfused\tdispatches\tfused");
+		for (String name : args.length > 0 ? args : Grammars) {
+			String path = "/blue/origami/grammar/" + name + ".opeg";
+			Grammar g = Grammar.loadFile(path);
+			HashMap<String, ArrayList<Source>> examples = examples(path);
+			long[] counts = new long[4];
+			TreeMap<String, Long> fusedCounts = new TreeMap<>();
+			for (String start : examples.keySet()) {
+				PAsmCode plain = compile(g, start, false);
+				PAsmCode fused = compile(g, start, true);
+				if (plain == null || fused == null) { // not a public production
+					continue;
+				}
+				counts[0] = Math.max(counts[0], plain.codeList().size());
+				counts[1] = Math.max(counts[1], fused.codeList().size());
+				counts[2] += dispatch(plain, examples.get(start));
+				counts[3] += dispatch(fused, examples.get(start));
+				fused.getDispatchCounts().forEach((k, v) -> fusedCounts.merge(k, v, Long::sum));
+			}
+			System.out.printf("%s\t%d\t%d\t%d\t%d (%.1f%%)%n", name, counts[0], counts[1], counts[2], counts[3],
+					100.0 * (counts[3] - counts[2]) / Math.max(1, counts[2]));
+			if (args.length > 0) {
+				System.out.println(fusedCounts);
+			}
+		}
+	}
+
+	/* the examples of a grammar file by start production */
+	static HashMap<String, ArrayList<Source>> examples(String path) throws IOException {
+		HashMap<String, ArrayList<Source>> examples = new HashMap<>();
+		Tree<?> t = GrammarParser.OPegParser.parse(ParserSource.newFileSource(FusionReport.class, path, null));
+		for (Tree<?> sub : t) {
+			if (sub.is(Oexample._Example)) {
+				String start = sub.get(GrammarParser._name).getString();
+				examples.computeIfAbsent(start, k -> new ArrayList<>()).add(sub.get(Oexample._text).toSource());
+			}
+		}
+		return examples;
+	}
+
+	private static PAsmCode compile(Grammar g, String start, boolean fusion) {
+		OOption options = new OOption();
+		options.set(ParserOption.Start, start);
+		options.set(ParserOption.Fusion, fusion);
+		Parser p = g.newParser(options);
+		return p == null ? null : (PAsmCode) p.compile();
+	}
+
+	static long dispatch(PAsmCode code, ArrayList<Source> inputs) {
+		code.setDispatchCounting(true);
+		for (Source s : inputs) {
+			code.match(s, 0, (tag, s0, spos, epos, nsubs, value) -> null, (parent, index, label, child) -> null);
+		}
+		long total = 0;
+		for (Map.Entry<String, Long> e : code.getDispatchCounts().entrySet()) {
+			total += e.getValue();
+		}
+		return total;
+	}
+}
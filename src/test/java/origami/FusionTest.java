@@ -0,0 +1,91 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class FusionTest {
+
+	private static final String[] JsonInputs = {
+			"{\"a\": [1, 2.5, true, null], \"b\": {\"c\": \"d\\n\", \"e\": false}}", "[\"x\\\"y\", \"\", -1e3]",
+			"[1, 2", "\"abc", "", "{\"あ\": \"い\"}  " };
+
+	private static final String[] CsvInputs = { "a,b,c\n1,\"x, y\",\"say \"\"hi\"\"\"\n", "\"unterminated\n", "",
+			",,\r\n" };
+
+	public void testJson() throws Throwable {
+		this.checkSame("json", JsonInputs);
+	}
+
+	public void testCsv() throws Throwable {
+		this.checkSame("csv", CsvInputs);
+	}
+
+	public void testInstructionCount() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		PAsmCode plain = (PAsmCode) newParser(g, false).compile();
+		PAsmCode fused = (PAsmCode) newParser(g, true).compile();
+		assert fused.codeList().size() < plain.codeList().size();
+		for (PAsmCode code : new PAsmCode[] { plain, fused }) {
+			code.setDispatchCounting(true);
+			code.match(ParserSource.newStringSource(JsonInputs[0]), 0,
+					(tag, s, spos, epos, nsubs, value) -> null, (parent, index, label, child) -> null);
+		}
+		assert fused.getDispatchCounts().containsKey("Rdfa");
+		assert total(fused) < total(plain);
+	}
+
+	private void checkSame(String grammar, String[] inputs) throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/" + grammar + ".opeg");
+		Parser plain = newParser(g, false);
+		Parser fused = newParser(g, true);
+		for (String input : inputs) {
+			assert plain.match(input) == fused.match(input) : input;
+			assert parse(plain, input).equals(parse(fused, input)) : input;
+		}
+	}
+
+	private static long total(PAsmCode code) {
+		long n = 0;
+		for (long c : code.getDispatchCounts().values()) {
+			n += c;
+		}
+		return n;
+	}
+
+	private static String parse(Parser p, String input) {
+		try {
+			return String.valueOf(p.parse(input));
+		} catch (IOException e) {
+			return e.toString();
+		}
+	}
+
+	private static Parser newParser(Grammar g, boolean fusion) {
+		OOption options = new OOption();
+		options.set(ParserOption.Fusion, fusion);
+		return g.newParser(options);
+	}
+}
@@ -0,0 +1,100 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.peg.Expression;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.SourceGrammar;
+import blue.origami.nez.peg.expression.PChoice;
+import blue.origami.util.OOption;
+
+public class LeftFactorTest {
+
+	private static final String[] Inputs = { "x = y;", "f(a.b);", "r;", "lbl: x = a[b[c]];", "x = 12; f(y); z;",
+			"x = ;", "f(a.);", "lbl: f(a[);" };
+
+	public void testFactor() throws Throwable {
+		this.checkSame("/opeg-test/factor.opeg", null);
+	}
+
+	public void testFactorAsm() throws Throwable {
+		this.checkSame("/opeg-test/factor.opeg", "AsmParserCompiler");
+	}
+
+	public void testTags() throws Throwable {
+		Parser p = newParser(SourceGrammar.loadFile("/opeg-test/factor.opeg"), true, null);
+		String t = parse(p, "x = y; f(a.b); r;");
+		assert t.contains("#Assign") && t.contains("#Call") && t.contains("#Ref") : t;
+	}
+
+	public void testRewrite() throws Throwable {
+		Grammar g = SourceGrammar.loadFile("/opeg-test/factor.opeg");
+		String uname = g.getUniqueName("Statement");
+		assert alternatives(newParser(g, false, null), uname) == 4;
+		/* { $(Name) _ ('=' ... / '(' ... / ';' ...) } / Name _ ':' _ Statement */
+		assert alternatives(newParser(g, true, null), uname) == 2;
+	}
+
+	public void testJson() throws Throwable {
+		this.checkSame("/blue/origami/grammar/json.opeg", null);
+	}
+
+	private void checkSame(String file, String compiler) throws Throwable {
+		Grammar g = SourceGrammar.loadFile(file);
+		Parser plain = newParser(g, false, compiler);
+		Parser factored = newParser(g, true, compiler);
+		for (String input : Inputs) {
+			assert plain.match(input) == factored.match(input) : input;
+			assert parse(plain, input).equals(parse(factored, input)) : input;
+		}
+	}
+
+	/* the alternatives of the first choice in the optimized production */
+	private static int alternatives(Parser p, String uname) {
+		Expression e = p.getParserGrammar().getExpression(uname);
+		while (!(e instanceof PChoice) && e.size() > 0) {
+			e = e.get(0);
+		}
+		return e instanceof PChoice ? e.size() : 1;
+	}
+
+	private static String parse(Parser p, String input) {
+		try {
+			return String.valueOf(p.parse(input));
+		} catch (IOException e) {
+			return e.toString();
+		}
+	}
+
+	/* the default passes, or the default passes without LeftFactorPass */
+	private static Parser newParser(Grammar g, boolean factor, String compiler) {
+		OOption options = new OOption();
+		if (compiler != null) {
+			options.set(ParserOption.Compiler, compiler);
+		}
+		if (!factor) {
+			options.set(ParserOption.PassPath, new String[] { "blue.origami.nez.parser.pass" });
+			options.set(ParserOption.Pass, new String[] { "NotCharPass", "TreePass", "DispatchPass", "InlinePass" });
+		}
+		return g.newParser(options);
+	}
+}
@@ -0,0 +1,89 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Compares the PAsm code of each bundled grammar with and without choices
+ * guarded by their first bytes: the number of guarded choices, and the
+ * dispatched instructions, pushed failure frames (Ialt) and backtracks
+ * (with the bytes rewound) while matching the grammar's examples.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.LookaheadReport [-Dexec.args=java]
+ * </pre>
+ */
+
+public class LookaheadReport {
+
+	private final static String[] Grammars = { "csv", "email", "java", "js", "json", "kal", "konoha5", "math",
+			"rb" };
+
+	public static void main(String[] args) throws IOException {
+		System.out.println("grammar\tguarded\tdispatches\tguarded\tframes\tguarded\tbacktracks\tguarded");
+		for (String name : args.length > 0 ? args : Grammars) {
+			String path = "/blue/origami/grammar/" + name + ".opeg";
+			Grammar g = Grammar.loadFile(path);
+			HashMap<String, ArrayList<Source>> examples = FusionReport.examples(path);
+			long[] plain = new long[5];
+			long[] guarded = new long[5];
+			for (String start : examples.keySet()) {
+				PAsmCode p = compile(g, start, 0);
+				PAsmCode q = compile(g, start, -1);
+				if (p == null || q == null) { // not a public production
+					continue;
+				}
+				count(p, examples.get(start), plain);
+				count(q, examples.get(start), guarded);
+			}
+			System.out.printf("%s\t%d\t%d\t%d\t%d\t%d\t%d/%d\t%d/%d%n", name, guarded[4], plain[0], guarded[0],
+					plain[1], guarded[1], plain[2], plain[3], guarded[2], guarded[3]);
+		}
+	}
+
+	/* dispatches, Ialt frames, backtracks, rewound bytes and (max) guarded choices */
+	private static void count(PAsmCode code, ArrayList<Source> inputs, long[] counts) {
+		counts[0] += FusionReport.dispatch(code, inputs);
+		counts[1] += code.getDispatchCounts().getOrDefault("Ialt", 0L);
+		long[] backtracks = code.getBacktrackCounts();
+		counts[2] += backtracks[0];
+		counts[3] += backtracks[1];
+		counts[4] = Math.max(counts[4],
+				code.codeList().stream().filter(inst -> inst.getName().equals("Ifirst")).count());
+	}
+
+	private static PAsmCode compile(Grammar g, String start, int lookahead) {
+		OOption options = new OOption();
+		options.set(ParserOption.Start, start);
+		if (lookahead >= 0) {
+			options.set(ParserOption.Lookahead, lookahead);
+		}
+		Parser p = g.newParser(options);
+		return p == null ? null : (PAsmCode) p.compile();
+	}
+}
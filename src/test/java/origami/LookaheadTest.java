@@ -0,0 +1,121 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.SourceGrammar;
+import blue.origami.util.OOption;
+
+public class LookaheadTest {
+
+	public void testJava() throws Throwable {
+		this.checkSame("java");
+	}
+
+	public void testKonoha5() throws Throwable {
+		this.checkSame("konoha5");
+	}
+
+	public void testFewerFrames() throws Throwable {
+		String path = "/blue/origami/grammar/java.opeg";
+		Grammar g = Grammar.loadFile(path);
+		ArrayList<Source> inputs = FusionReport.examples(path).get("File");
+		PAsmCode plain = (PAsmCode) newParser(g, "File", 0).compile();
+		PAsmCode guarded = (PAsmCode) newParser(g, "File", -1).compile();
+		long d1 = FusionReport.dispatch(plain, inputs);
+		long d2 = FusionReport.dispatch(guarded, inputs);
+		assert guarded.getDispatchCounts().containsKey("Ifirst");
+		assert guarded.getDispatchCounts().get("Ialt") < plain.getDispatchCounts().get("Ialt");
+		assert d2 < d1 : d2 + " >= " + d1;
+	}
+
+	public void testErrorPosition() throws Throwable {
+		/* the guard skips 'a' 'b'? 'c' at 'd', which backtracks to 'a' without guards */
+		this.checkError(SourceGrammar.loadFile("/opeg-test/guard.opeg"), "File", "ad", ":1+0");
+		/* the members of an Object backtrack to after '{' */
+		this.checkError(Grammar.loadFile("/blue/origami/grammar/json.opeg"), "Object", "{@", ":1+1");
+	}
+
+	private void checkError(Grammar g, String start, String input, String pos) {
+		String e = parse(newParser(g, start, 0), input);
+		assert e.startsWith("error") && e.contains(pos) : e;
+		String e2 = parse(newParser(g, start, -1), input);
+		assert e.equals(e2) : e2;
+	}
+
+	/* the same results and errors for the grammar's examples with and without guards */
+	private void checkSame(String grammar) throws Throwable {
+		String path = "/blue/origami/grammar/" + grammar + ".opeg";
+		Grammar g = Grammar.loadFile(path);
+		HashMap<String, ArrayList<Source>> examples = FusionReport.examples(path);
+		for (String start : examples.keySet()) {
+			Parser plain = newParser(g, start, 0);
+			Parser guarded = newParser(g, start, -1);
+			if (plain == null || guarded == null) { // not a public production
+				continue;
+			}
+			for (Source s : examples.get(start)) {
+				assert plain.match(s) == guarded.match(s) : start + " " + s;
+				assert parse(plain, s).equals(parse(guarded, s)) : start + " " + s;
+				for (String t : broken(s.subString(0, s.length()))) {
+					assert parse(plain, t).equals(parse(guarded, t)) : start + " " + t;
+				}
+			}
+		}
+	}
+
+	/* truncated inputs and inputs with a stray byte */
+	private static ArrayList<String> broken(String text) {
+		ArrayList<String> l = new ArrayList<>();
+		for (int i = 1; i < text.length(); i += Math.max(1, text.length() / 7)) {
+			l.add(text.substring(0, i));
+			l.add(text.substring(0, i) + "@" + text.substring(i));
+		}
+		return l;
+	}
+
+	private static String parse(Parser p, Source s) {
+		try {
+			return String.valueOf(p.parse(s));
+		} catch (IOException e) {
+			return "error " + e;
+		}
+	}
+
+	private static String parse(Parser p, String s) {
+		return parse(p, ParserSource.newStringSource(s));
+	}
+
+	private static Parser newParser(Grammar g, String start, int lookahead) {
+		OOption options = new OOption();
+		options.set(ParserOption.Start, start);
+		if (lookahead >= 0) {
+			options.set(ParserOption.Lookahead, lookahead);
+		}
+		return g.newParser(options);
+	}
+}
@@ -0,0 +1,145 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserGrammar;
+import blue.origami.nez.parser.ParserGrammar.MemoPoint;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class MemoTableTest {
+
+	private Parser newParser(Grammar g, String strategy, int w) {
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		if (strategy == null) {
+			options.set(ParserOption.PackratParsing, false);
+		} else {
+			options.set(ParserOption.MemoTable, strategy);
+			options.set(ParserOption.WindowSize, w);
+		}
+		return g.newParser(options);
+	}
+
+	private String readInput(String file) throws Throwable {
+		Source s = ParserSource.newFileSource(file, null);
+		return s.subString(0, s.length());
+	}
+
+	public void testStrategies() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		String input = this.readInput("pom.xml");
+		String expected = "" + this.newParser(g, null, 0).parse(input);
+		assert !expected.equals("null");
+		for (String strategy : new String[] { "direct", "2way", "window" }) {
+			for (int w : new int[] { 1, 8, 64 }) {
+				Parser p = this.newParser(g, strategy, w);
+				assert expected.equals("" + p.parse(input)) : strategy + " W=" + w;
+				assert expected.equals("" + p.parse(input)) : strategy + " W=" + w;
+				String stat = "" + ((PAsmCode) p.getExecutable()).getMemoStat();
+				assert stat.startsWith(strategy + "(W=" + w) : stat;
+			}
+		}
+	}
+
+	public void testAdaptiveProfile() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 200; i++) {
+			sb.append("<item id=\"" + i + "\"><name>n" + i + "</name></item>");
+		}
+		String input = sb.append("</root>").toString();
+		String expected = "" + this.newParser(g, null, 0).parse(input);
+		File file = File.createTempFile("memo", ".prof");
+		file.delete();
+		OOption options = new OOption();
+		options.set(ParserOption.MemoProfile, file.getPath());
+		Parser p = g.newParser(options);
+		assert expected.equals("" + p.parse(input));
+		ParserGrammar pg = p.getParserGrammar();
+		assert !pg.getMemoPoint("xml:Content").isEnabled();
+		p.saveMemoProfile();
+		assert file.exists();
+
+		Parser p2 = g.newParser(options);
+		assert !p2.getParserGrammar().getMemoPoint("xml:Content").isEnabled();
+		assert expected.equals("" + p2.parse(input));
+		file.delete();
+	}
+
+	public void testSharedMemoPoint() throws Throwable {
+		MemoPoint m = new MemoPoint(0, "A", null, false);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int c = 0; c < 10000; c++) {
+					m.memoHit(1);
+					m.failHit();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assert m.hits() == 80000 : m.hits();
+		assert m.failHits() == 80000 : m.failHits();
+		for (int c = 0; c < 32; c++) {
+			m.miss();
+		}
+		m.setEnabled(false);
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+			out.writeObject(m);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+			MemoPoint m2 = (MemoPoint) in.readObject();
+			assert m2.isEnabled();
+			assert m2.count() == 0;
+			assert m2.label.equals("A");
+		}
+	}
+
+	public void testSessionRelease() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		Parser p = this.newParser(g, "direct", 64);
+		Source s = ParserSource.newStringSource(this.readInput("pom.xml"));
+		assert p.newSession().parse(s) != null;
+		WeakReference<Source> ref = new WeakReference<>(s); // memoized trees refer to their source
+		s = null;
+		for (int i = 0; i < 8 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		/* the memo statistics of the parser must not retain the memo table of a session */
+		assert ref.get() == null;
+		assert ("" + ((PAsmCode) p.getExecutable()).getMemoStat()).startsWith("direct(W=64");
+	}
+
+}
@@ -0,0 +1,93 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.MmapSource;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.StringSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class MmapSourceTest {
+
+	private void checkSource(Source expected, Source s) {
+		assert expected.length() == s.length();
+		for (long pos = 0; pos < s.length(); pos++) {
+			assert expected.byteAt(pos) == s.byteAt(pos) : pos;
+			assert expected.eof(pos) == s.eof(pos) : pos;
+		}
+		byte[] text = expected.subBytes(10, 30);
+		for (long pos = 0; pos + 20 <= s.length(); pos += 7) {
+			assert expected.match(pos, text) == s.match(pos, text) : pos;
+			assert expected.subString(pos, pos + 20).equals(s.subString(pos, pos + 20)) : pos;
+			assert expected.linenum(pos) == s.linenum(pos) : pos;
+		}
+	}
+
+	public void testChunks() throws Throwable {
+		File f = new File("pom.xml");
+		byte[] b = Files.readAllBytes(f.toPath());
+		Source expected = new StringSource("pom.xml", 1, b, false);
+		for (int bits : new int[] { 4, 12, MmapSource.DefaultChunkBits }) {
+			Source s = new MmapSource("pom.xml", bits);
+			this.checkSource(expected, s);
+			this.checkSource(expected.subSource(100, 1000), s.subSource(100, 1000));
+		}
+	}
+
+	public void testParse() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		Parser p = g.newParser(options);
+		byte[] b = Files.readAllBytes(new File("pom.xml").toPath());
+		String expected = "" + p.parse(new StringSource("pom.xml", 1, b, false));
+		assert expected.equals("" + p.parse(new MmapSource("pom.xml", 8)));
+	}
+
+	public void testLinenum() throws Throwable {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 300000; i++) {
+			sb.append("line ").append(i).append(i % 7 == 0 ? "\n\n" : "\n");
+		}
+		File f = File.createTempFile("mmap", ".txt");
+		try {
+			byte[] b = sb.toString().getBytes("UTF-8");
+			Files.write(f.toPath(), b);
+			Source expected = new StringSource(f.getPath(), 1, b, false);
+			for (int bits : new int[] { 12, MmapSource.DefaultChunkBits }) {
+				Source s = new MmapSource(f.getPath(), bits);
+				for (long pos = b.length; pos >= 0; pos -= 997) { // backwards
+					assert expected.linenum(pos) == s.linenum(pos) : pos;
+				}
+				Source sub = s.subSource(150000, 250000);
+				Source esub = expected.subSource(150000, 250000);
+				for (long pos = 0; pos < sub.length(); pos += 1999) {
+					assert esub.linenum(pos) == sub.linenum(pos) : pos;
+				}
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+}
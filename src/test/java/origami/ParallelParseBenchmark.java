@@ -0,0 +1,63 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.ParallelParser;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Measures the throughput of ParallelParser on a generated CSV input as the
+ * number of workers grows.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.ParallelParseBenchmark -Dexec.args=64
+ * </pre>
+ */
+
+public class ParallelParseBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int mb = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < mb << 20; i++) {
+			sb.append(i + ",Ford,\"E350, ac\"," + (i * 7) + ".00\n");
+		}
+		Source s = ParserSource.newStringSource(sb.toString());
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int n = 1; n <= cores; n *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(n);
+			ParallelParser p = new ParallelParser(g, "Line", "NEWLINE", new OOption(), pool,
+					ParallelParser.DefaultChunkSize);
+			long best = Long.MAX_VALUE;
+			for (int c = 0; c < 3; c++) {
+				long t1 = System.nanoTime();
+				long[] count = { 0 };
+				p.parseEach(s, t -> count[0]++);
+				best = Math.min(best, System.nanoTime() - t1);
+			}
+			pool.shutdown();
+			System.out.printf("workers %d\t%.1f[MiB/s]%n", n, s.length() / 1048576.0 / (best / 1e9));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.ChannelSource;
+import blue.origami.nez.parser.ParallelParser;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ParallelParserTest {
+
+	private static String csv(int n, boolean quotedNewline) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			String desc = quotedNewline && i % 50 == 49 ? "\"MUST SELL!\nair, moon\"" : "\"E350, ac\"";
+			sb.append(i + ",Ford," + desc + "," + (i * 7) + ".00\n");
+		}
+		return sb.toString();
+	}
+
+	private void check(String text, int chunkSize) throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		Source s = ParserSource.newStringSource(text);
+		List<String> expected = new ArrayList<>();
+		g.newParser("Line", new OOption()).parseEach(s, t -> expected.add(t.toString()));
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ParallelParser p = new ParallelParser(g, "Line", "NEWLINE", new OOption(), pool, chunkSize);
+		List<Tree<?>> trees = p.parse(s);
+		pool.shutdown();
+		assert trees.size() == expected.size() : trees.size();
+		for (int i = 0; i < trees.size(); i++) {
+			assert expected.get(i).equals(trees.get(i).toString()) : i;
+		}
+	}
+
+	public void testChunks() throws Throwable {
+		String text = csv(3000, false);
+		this.check(text, 1000);
+		this.check(text, 10); // shorter than a record
+		this.check(text, text.length() * 2);
+	}
+
+	public void testMisaligned() throws Throwable {
+		this.check(csv(3000, true), 1000);
+	}
+
+	public void testUnshareableSource() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		ParallelParser p = new ParallelParser(g, "Line", "NEWLINE", new OOption(), ForkJoinPool.commonPool(), 1000);
+		byte[] b = csv(10, false).getBytes("UTF-8");
+		try {
+			p.parse(new ChannelSource("csv", Channels.newChannel(new ByteArrayInputStream(b))));
+			assert false;
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
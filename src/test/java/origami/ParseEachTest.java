@@ -0,0 +1,71 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.ChannelSource;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ParseEachTest {
+
+	private static String csv(int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append(i + ",Ford,\"E350, ac\"," + (i * 7) + ".00\n");
+		}
+		return sb.toString();
+	}
+
+	public void testRecords() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		String text = csv(100);
+		Tree<?> file = g.newParser(new OOption()).parse(text);
+		List<String> records = new ArrayList<>();
+		long epos = g.newParser("Line", new OOption()).parseEach(ParserSource.newStringSource(text),
+				t -> records.add(t.toString()));
+		assert epos == text.length();
+		assert records.size() == file.size() : records.size();
+		for (int i = 0; i < file.size(); i++) {
+			assert records.get(i).equals(file.get(i).toString()) : i;
+		}
+	}
+
+	public void testStreaming() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/csv.opeg");
+		Parser p = g.newParser("Line", new OOption());
+		byte[] b = csv(20000).getBytes();
+		ChannelSource s = new ChannelSource("stream.csv", Channels.newChannel(new ByteArrayInputStream(b)), 256);
+		int[] count = { 0 };
+		long epos = p.newSession().parseEach(s, t -> {
+			assert t.size() == 4;
+			assert t.get(0).getString().equals("" + count[0]);
+			count[0]++;
+		});
+		assert epos == b.length;
+		assert count[0] == 20000;
+		assert s.capacity() <= 256 : s.capacity();
+	}
+
+}
@@ -0,0 +1,165 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserCache;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.pasm.PAsmCode;
+import blue.origami.util.OOption;
+
+public class ParserCacheTest {
+
+	private static File tempDir() throws IOException {
+		return Files.createTempDirectory("pcache").toFile();
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (File c : files) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private static File write(File dir, String name, String text) throws IOException {
+		File f = new File(dir, name);
+		Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private static String resource(String name) throws IOException {
+		return new String(Files.readAllBytes(new File("src/main/resources/blue/origami/grammar/" + name).toPath()),
+				StandardCharsets.UTF_8);
+	}
+
+	private static Parser newParser(File cache, File file, OOption options) throws IOException {
+		return new ParserCache(cache.getPath(), options).newParser(file.getPath(), null);
+	}
+
+	public void testReload() throws Throwable {
+		File dir = tempDir();
+		try {
+			File cache = new File(dir, "cache");
+			String[] inputs = { "<a href=\"x\"><b>text</b><c/></a>", "<?xml version=\"1.0\"?><a>&amp;</a>" };
+			File xml = write(dir, "xml.opeg", resource("xml.opeg"));
+			Parser p = newParser(cache, xml, new OOption());
+			assert !p.isPrecompiled();
+			Parser p2 = newParser(cache, xml, new OOption());
+			assert p2.isPrecompiled();
+			assert p2.getParserGrammar().getMemoPointSize() == p.getParserGrammar().getMemoPointSize();
+			for (String s : inputs) {
+				assert p.parse(s).toString().equals(p2.parse(s).toString()) : s;
+				assert p.match(s) == p2.match(s) : s;
+			}
+			assert p2.match("<a>") == -1;
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testKey() throws Throwable {
+		File dir = tempDir();
+		try {
+			File cache = new File(dir, "cache");
+			File json = write(dir, "json.opeg", resource("json.opeg"));
+			assert !newParser(cache, json, new OOption()).isPrecompiled();
+			assert newParser(cache, json, new OOption()).isPrecompiled();
+			OOption options = new OOption();
+			options.set(ParserOption.TreeConstruction, false);
+			assert !newParser(cache, json, options).isPrecompiled();
+			assert newParser(cache, json, options).isPrecompiled();
+			write(dir, "json.opeg", resource("json.opeg") + "\n// changed\n");
+			assert !newParser(cache, json, new OOption()).isPrecompiled();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testScanners() throws Throwable {
+		File dir = tempDir();
+		try {
+			File cache = new File(dir, "cache");
+			File rep = write(dir, "rep.opeg", "File = 'x'* [a-z]+ 'ab'* [0-9]* 'y'+ !.\n");
+			String input = "xxxxxxxxxxxxxxxxxxxxqwertyuiopasdfghjkabababababab0123456789012345yyyyyyyyyyyyyyyyy";
+			Parser p = newParser(cache, rep, new OOption());
+			Parser p2 = newParser(cache, rep, new OOption());
+			assert p2.isPrecompiled();
+			/* the scanners are not serialized but rebuilt from the instruction fields */
+			assert p2.match(input) == input.length();
+			assert p2.match(input + "z") == p.match(input + "z");
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testImport() throws Throwable {
+		File dir = tempDir();
+		try {
+			File cache = new File(dir, "cache");
+			write(dir, "digit.opeg", "DIGIT = [0-9]\n");
+			File main = write(dir, "main.opeg", "File = { DIGIT+ #Number }\nimport \"digit.opeg\"\n");
+			Parser p = newParser(cache, main, new OOption());
+			assert p.match("123") == 3;
+			p = newParser(cache, main, new OOption());
+			assert p.isPrecompiled();
+			assert p.match("123") == 3;
+			write(dir, "digit.opeg", "DIGIT = [0-7]\n");
+			p = newParser(cache, main, new OOption());
+			assert !p.isPrecompiled();
+			assert p.match("189") == 1;
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static class Gadget implements Serializable {
+		static boolean touched = false;
+
+		private void readObject(ObjectInputStream in) {
+			touched = true;
+		}
+	}
+
+	public void testFilter() throws Throwable {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+			out.writeObject("json");
+			out.writeBoolean(false);
+			out.writeObject(new Gadget()); // in place of the memo points
+		}
+		try {
+			PAsmCode.readFrom(new ByteArrayInputStream(buf.toByteArray()), new OOption());
+			assert false;
+		} catch (IOException e) {
+		}
+		assert !Gadget.touched;
+	}
+}
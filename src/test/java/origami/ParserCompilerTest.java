@@ -0,0 +1,100 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.io.IOException;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.pasm.AsmParserCode;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.nez.peg.SourceGrammar;
+import blue.origami.util.OOption;
+
+public class ParserCompilerTest {
+
+	private Parser newParser(Grammar g, boolean asm) {
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		if (asm) {
+			options.set(ParserOption.Compiler, "AsmParserCompiler");
+		}
+		return g.newParser(options);
+	}
+
+	private void parseExample(String file) throws Throwable {
+		Grammar g = SourceGrammar.loadFile("/opeg-test/" + file + ".opeg");
+		Parser p = this.newParser(g, false);
+		Parser p2 = this.newParser(g, true);
+		assert p2.compile() instanceof AsmParserCode;
+		for (int i = 0; i < 10; i++) {
+			Source sin = this.loadInputText(file, i);
+			if (sin == null) {
+				break;
+			}
+			String parsed = "" + p.parse(sin);
+			String parsed2 = "" + p2.parse(sin);
+			assert parsed.equals(parsed2) : file + ": " + parsed + " " + parsed2;
+			assert p.match(sin) == p2.match(sin) : file;
+		}
+	}
+
+	private Source loadInputText(String file, int num) {
+		try {
+			return ParserSource.newFileSource("/opeg-test/" + file + "/" + num + ".in", null);
+		} catch (IOException e) {
+		}
+		return null;
+	}
+
+	public void testExamples() throws Throwable {
+		for (String file : new String[] { "alnum", "recursion", "list", "lpair", "rpair", "mchar", "math", "rna", "if",
+				"block", "exists", "is", "local", "match", "not-exists", "not-is" }) {
+			this.parseExample(file);
+		}
+	}
+
+	public void testJson() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		String text = "{\"a\": [1, 2.0, -3.5, true, null], \"b\": {\"c\": \"d\\n\"}}";
+		assert ("" + this.newParser(g, false).parse(text)).equals("" + this.newParser(g, true).parse(text));
+	}
+
+	public void testXml() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/xml.opeg");
+		Source s = ParserSource.newFileSource("pom.xml", null);
+		assert ("" + this.newParser(g, false).parse(s)).equals("" + this.newParser(g, true).parse(s));
+	}
+
+	public void testJava() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/java.opeg");
+		Parser p = this.newParser(g, false);
+		Parser p2 = this.newParser(g, true);
+		File dir = new File("src/main/java/blue/origami/nez/parser");
+		for (File f : dir.listFiles()) {
+			if (f.getName().endsWith(".java")) {
+				Source s = ParserSource.newFileSource(f.getPath(), null);
+				assert p.match(s) == p2.match(s) : f;
+				assert ("" + p.parse(s)).equals("" + p2.parse(s)) : f;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+
+package origami;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserProfiler;
+import blue.origami.nez.parser.ParserProfiler.Entry;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ParserProfilerTest {
+
+	private static final String Input = "{\"a\": [1, 2.5, true, null], \"b\": {\"c\": \"d\"}}";
+
+	public void testProfile() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.Profile, true);
+		Parser p = g.newParser(options);
+		String expected = g.newParser(new OOption()).parse(Input).toString();
+		for (int i = 0; i < 3; i++) {
+			assert p.parse(Input).toString().equals(expected);
+		}
+		ParserProfiler prof = options.get(ParserProfiler.class);
+		assert prof != null;
+		HashMap<String, Entry> map = new HashMap<>();
+		for (Entry e : prof.entries()) {
+			map.put(e.name, e);
+		}
+		Entry file = map.get("json:File");
+		assert file != null && file.calls == 3 : file;
+		assert file.bytes == 3 * Input.length() : file.bytes;
+		assert file.nanos > 0 && file.nanos >= file.selfNanos;
+		for (Entry e : map.values()) {
+			assert e.calls >= e.fails : e.name;
+		}
+		assert p.match("{\"a\": ]") == -1;
+		long fails = 0;
+		for (Entry e : prof.entries()) {
+			fails += e.fails;
+		}
+		assert fails > 0;
+		assert prof.report(p.getParserGrammar(), 10).contains("json:File");
+	}
+
+	public void testFlameGraph() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.Profile, true);
+		Parser p = g.newParser(options);
+		p.parse(Input);
+		File f = File.createTempFile("profile", ".folded");
+		f.deleteOnExit();
+		options.<ParserProfiler> get(ParserProfiler.class).saveFlameGraph(f.getPath());
+		List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+		assert lines.size() > 0;
+		for (String line : lines) {
+			assert line.startsWith("json:File") : line;
+			assert line.matches("[^ ]+ [0-9]+") : line;
+		}
+	}
+
+	public void testDisabled() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		OOption options = new OOption();
+		g.newParser(options).parse(Input);
+		assert options.get(ParserProfiler.class) == null;
+	}
+
+	public void testAsmCompiler() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.Profile, true);
+		options.set(ParserOption.Compiler, "AsmParserCompiler");
+		Parser p = g.newParser(options);
+		p.parse(Input);
+		assert options.get(ParserProfiler.class) == null;
+		PrintStream out = System.out;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(buf, true, "UTF-8"));
+		try {
+			p.reportProfile();
+		} finally {
+			System.setOut(out);
+		}
+		assert buf.toString("UTF-8").contains("-DProfile") : buf;
+	}
+
+	/* a source that fails once when the parser reads past a position */
+	static class BrokenSource extends ParserSource {
+		private final Source base;
+		boolean broken = true;
+
+		BrokenSource(String text) {
+			super("broken", 1);
+			this.base = ParserSource.newStringSource(text);
+		}
+
+		@Override
+		public long length() {
+			return this.base.length();
+		}
+
+		@Override
+		public int byteAt(long pos) {
+			if (this.broken && pos > 20) {
+				this.broken = false;
+				throw new IllegalStateException("broken at " + pos);
+			}
+			return this.base.byteAt(pos);
+		}
+
+		@Override
+		public boolean eof(long pos) {
+			return this.base.eof(pos);
+		}
+
+		@Override
+		public boolean match(long pos, byte[] text) {
+			for (int i = 0; i < text.length; i++) {
+				if (this.byteAt(pos + i) != (text[i] & 0xff)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String subString(long startIndex, long endIndex) {
+			return this.base.subString(startIndex, endIndex);
+		}
+
+		@Override
+		public byte[] subBytes(long startIndex, long endIndex) {
+			return this.base.subBytes(startIndex, endIndex);
+		}
+
+		@Override
+		public long linenum(long pos) {
+			return this.base.linenum(pos);
+		}
+	}
+
+	public void testInterruptedParse() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		OOption options = new OOption();
+		options.set(ParserOption.Profile, true);
+		Parser p = g.newParser(options);
+		try {
+			p.parse(new BrokenSource(Input));
+			assert false;
+		} catch (IllegalStateException e) {
+		}
+		p.parse(Input);
+		File f = File.createTempFile("profile", ".folded");
+		f.deleteOnExit();
+		options.<ParserProfiler> get(ParserProfiler.class).saveFlameGraph(f.getPath());
+		for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+			assert line.indexOf("json:File", 1) == -1 : line; // not nested in the interrupted parse
+		}
+	}
+}
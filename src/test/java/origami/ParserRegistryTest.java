@@ -0,0 +1,135 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserCode;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserRegistry;
+import blue.origami.nez.parser.TrapAction;
+import blue.origami.util.OOption;
+
+public class ParserRegistryTest {
+	private static final int Threads = 32;
+
+	private static String json(int i) {
+		return "{\"id\": " + i + ", \"name\": \"n" + i + "\", \"tags\": [" + i + ", true, null], \"o\": {\"x\": 1." + i
+				+ "}}";
+	}
+
+	public void testCompileOnce() throws Throwable {
+		ParserRegistry registry = new ParserRegistry();
+		OOption options = new OOption();
+		Parser p = registry.getParser("/blue/origami/grammar/json.opeg", null, options);
+		assert registry.getParser("/blue/origami/grammar/json.opeg", null, options) == p;
+		assert registry.getParser("/blue/origami/grammar/json.opeg", "Value", options) != p;
+		assert registry.size() == 2;
+	}
+
+	public void testOptionKey() throws Throwable {
+		ParserRegistry registry = new ParserRegistry();
+		String file = "/blue/origami/grammar/json.opeg";
+		Parser p = registry.getParser(file, null, new OOption());
+		OOption asm = new OOption();
+		asm.set(ParserOption.Compiler, "AsmParserCompiler");
+		Parser p2 = registry.getParser(file, null, asm);
+		assert p2 != p;
+		assert p2.getExecutable().getClass() != p.getExecutable().getClass();
+		OOption lenient = new OOption();
+		lenient.set(ParserOption.ThrowingParserError, false);
+		assert registry.getParser(file, null, lenient) != p;
+		OOption lenient2 = new OOption();
+		lenient2.set(ParserOption.ThrowingParserError, false);
+		assert registry.getParser(file, null, lenient2) == registry.getParser(file, null, lenient);
+		OOption window = new OOption();
+		window.set(ParserOption.WindowSize, 8);
+		assert registry.getParser(file, null, window) != p;
+		OOption boundary = new OOption();
+		boundary.set(ParserOption.Boundary, "NEWLINE"); // read by ParallelParser only
+		assert registry.getParser(file, null, boundary) == p;
+		assert registry.size() == 4;
+	}
+
+	public void testIdentityKey() throws Throwable {
+		ParserRegistry registry = new ParserRegistry();
+		String file = "/blue/origami/grammar/json.opeg";
+		TrapAction[] traps = { (px, uid) -> {
+		} };
+		OOption options = new OOption();
+		options.set(ParserOption.TrapActions, traps);
+		OOption same = new OOption();
+		same.set(ParserOption.TrapActions, traps);
+		OOption other = new OOption();
+		other.set(ParserOption.TrapActions, traps.clone()); // equal contents, another array
+		OOption action = new OOption();
+		action.set(ParserOption.TrapActions, new TrapAction[] { (px, uid) -> {
+		} });
+		Parser p = registry.getParser(file, null, options);
+		assert registry.getParser(file, null, same) == p;
+		assert registry.getParser(file, null, other) == p; // arrays are compared by element
+		assert registry.getParser(file, null, action) != p;
+		assert registry.size() == 2;
+	}
+
+	public void testConcurrentParse() throws Throwable {
+		ParserRegistry registry = new ParserRegistry();
+		OOption options = new OOption();
+		Parser seq = registry.getParser("/blue/origami/grammar/json.opeg", null, new OOption());
+		String[] expected = new String[200];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = seq.parse(json(i)).toString();
+		}
+		registry.clear();
+		ExecutorService pool = Executors.newFixedThreadPool(Threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<ParserCode>> results = new ArrayList<>();
+		for (int t = 0; t < Threads; t++) {
+			final int offset = t;
+			results.add(pool.submit(() -> {
+				start.await();
+				Parser p = registry.getParser("/blue/origami/grammar/json.opeg", null, options);
+				for (int n = 0; n < 50; n++) {
+					int i = (offset * 7 + n) % expected.length;
+					String s = p.parse(json(i)).toString();
+					if (!s.equals(expected[i])) {
+						throw new AssertionError(i + " " + s);
+					}
+					if (p.match(json(i)) != json(i).length()) {
+						throw new AssertionError("match " + i);
+					}
+				}
+				return p.getExecutable();
+			}));
+		}
+		start.countDown();
+		ParserCode code = null;
+		for (Future<ParserCode> f : results) {
+			ParserCode c = f.get();
+			assert code == null || code == c; // compiled once, shared by all threads
+			code = c;
+		}
+		pool.shutdown();
+		assert registry.size() == 1;
+	}
+}
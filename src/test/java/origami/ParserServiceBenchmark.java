@@ -0,0 +1,85 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserService;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Load generator for ParserService: feeds generated one-line JSON documents
+ * as StringSources and reports throughput and latency percentiles for
+ * 1..N worker threads, next to a single-threaded loop.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.ParserServiceBenchmark -Dexec.args="200000 4"
+ * </pre>
+ */
+
+public class ParserServiceBenchmark {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Parser p = Grammar.loadFile("/blue/origami/grammar/json.opeg").newParser(new OOption());
+		for (int c = 0; c < 3; c++) {
+			long t0 = System.nanoTime();
+			Iterator<Source> docs = documents(n);
+			while (docs.hasNext()) {
+				p.parse(docs.next());
+			}
+			double s = (System.nanoTime() - t0) / 1e9;
+			System.out.printf("sequential\t%.1f[docs/s]%n", n / s);
+		}
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			for (int c = 0; c < 3; c++) {
+				try (ParserService service = new ParserService(p, threads, threads * 64)) {
+					LongAdder nodes = new LongAdder();
+					service.parseAll(documents(n), (src, t) -> nodes.add(t.size())).join();
+					System.out.printf("threads=%d\t%s%n", threads, service.getStats());
+				}
+			}
+		}
+	}
+
+	/* generated lazily, as a request stream would arrive */
+	static Iterator<Source> documents(int n) {
+		return new Iterator<Source>() {
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.i < n;
+			}
+
+			@Override
+			public Source next() {
+				int k = this.i++;
+				return ParserSource.newStringSource("{\"id\": " + k + ", \"user\": \"u" + (k % 97)
+						+ "\", \"tags\": [\"a\", \"b" + k + "\"], \"score\": " + (k * 0.5) + ", \"ok\": "
+						+ (k % 2 == 0) + "}");
+			}
+		};
+	}
+}
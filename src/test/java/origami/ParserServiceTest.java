@@ -0,0 +1,80 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserService;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ParserServiceTest {
+
+	private static Parser parser() throws Throwable {
+		return Grammar.loadFile("/blue/origami/grammar/json.opeg").newParser(new OOption());
+	}
+
+	private static List<Source> docs(int n) {
+		List<Source> l = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			l.add(ParserSource.newStringSource("{\"id\": " + i + ", \"v\": [" + i + ", \"s" + i + "\"]}"));
+		}
+		return l;
+	}
+
+	public void testParseAll() throws Throwable {
+		Parser p = parser();
+		List<Source> docs = docs(2000);
+		Map<Source, String> results = new ConcurrentHashMap<>();
+		try (ParserService service = new ParserService(p, 4, 16)) {
+			service.parseAll(docs.iterator(), (s, t) -> {
+				assert service.pending() <= 16;
+				results.put(s, t.toString());
+			}).get();
+			assert service.getStats().documents() == 2000;
+			assert service.getStats().failures() == 0;
+			assert service.getStats().percentile(0.99) >= service.getStats().percentile(0.5);
+			assert service.getStats().percentile(0.5) > 0;
+		}
+		assert results.size() == docs.size();
+		for (Source s : docs) {
+			assert results.get(s).equals(p.parse(s).toString());
+		}
+	}
+
+	public void testMatchAndFailure() throws Throwable {
+		try (ParserService service = new ParserService(parser(), 2, 4)) {
+			CompletableFuture<Integer> m = service.match(ParserSource.newStringSource("[1, 2]"));
+			CompletableFuture<?> bad = service.parse(ParserSource.newStringSource("{\"a\": }"));
+			assert m.get() == 6;
+			try {
+				bad.get();
+				assert false;
+			} catch (ExecutionException e) {
+			}
+			assert service.getStats().failures() == 1;
+		}
+	}
+}
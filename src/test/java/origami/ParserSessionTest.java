@@ -0,0 +1,58 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSession;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class ParserSessionTest {
+
+	private void checkSession(String file, String... inputs) throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/" + file);
+		for (String compiler : new String[] { null, "AsmParserCompiler" }) {
+			OOption options = new OOption();
+			options.set(ParserOption.ThrowingParserError, false);
+			if (compiler != null) {
+				options.set(ParserOption.Compiler, compiler);
+			}
+			Parser p = g.newParser(options);
+			assert p.getParserGrammar().getMemoPointSize() > 0 : file;
+			ParserSession session = p.newSession();
+			for (int c = 0; c < 3; c++) {
+				for (String input : inputs) {
+					String expected = "" + g.newParser(options).parse(input);
+					assert expected.equals("" + session.parse(input)) : input;
+					assert g.newParser(options).match(input) == session.match(input) : input;
+				}
+			}
+		}
+	}
+
+	public void testXml() throws Throwable {
+		this.checkSession("xml.opeg", "<a x=\"1\">text</a>", "<a x=\"1\"><b/></a>", "<a y='2'>text</a>", "<a></b>",
+				"<a x=\"1\">text</a>");
+	}
+
+	public void testJson() throws Throwable {
+		this.checkSession("json.opeg", "{\"a\": 1}", "{\"a\": [1, 2]}", "{\"a\": \"1\"}", "{\"a\": }",
+				"[1, {\"a\": 1}]");
+	}
+
+}
@@ -0,0 +1,74 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import blue.origami.nez.ast.Symbol;
+
+public class SymbolTest {
+
+	public void testConcurrentUnique() throws Throwable {
+		int threads = 16;
+		int names = 20000;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Symbol[]>> results = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int offset = t * 7919;
+			results.add(pool.submit(() -> {
+				Symbol[] symbols = new Symbol[names];
+				start.await();
+				for (int i = 0; i < names; i++) {
+					int n = (i + offset) % names; // every thread in a different order
+					symbols[n] = Symbol.unique("stress" + n);
+					assert Symbol.tag(symbols[n].id()) == symbols[n];
+				}
+				return symbols;
+			}));
+		}
+		long t1 = System.nanoTime();
+		start.countDown();
+		List<Symbol[]> all = new ArrayList<>();
+		for (Future<Symbol[]> f : results) {
+			all.add(f.get());
+		}
+		long t2 = System.nanoTime();
+		pool.shutdown();
+		System.out.printf("Symbol.unique: %d threads, %.1f[M ops/s]%n", threads,
+				(double) threads * names / ((t2 - t1) / 1000.0));
+		boolean[] seen = new boolean[Symbol.size()];
+		for (int n = 0; n < names; n++) {
+			Symbol s = all.get(0)[n];
+			for (Symbol[] symbols : all) {
+				assert symbols[n] == s : n;
+			}
+			assert s.getSymbol().equals("stress" + n);
+			assert !seen[s.id()] : s.id(); // unique ids
+			seen[s.id()] = true;
+		}
+		for (int id = 0; id < Symbol.size(); id++) {
+			assert Symbol.tag(id).id() == id; // dense ids
+		}
+	}
+
+}
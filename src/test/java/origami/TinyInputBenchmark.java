@@ -0,0 +1,83 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.IOException;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSession;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Measures the per-call overhead of match/parse on thousands of one-line
+ * JSON records.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.TinyInputBenchmark
+ * </pre>
+ */
+
+public class TinyInputBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		Source[] inputs = new Source[n];
+		for (int i = 0; i < n; i++) {
+			inputs[i] = ParserSource.newStringSource("{\"id\": " + i + ", \"name\": \"r" + i + "\", \"ok\": true}");
+		}
+		for (String compiler : new String[] { null, "AsmParserCompiler" }) {
+			OOption options = new OOption();
+			if (compiler != null) {
+				options.set(ParserOption.Compiler, compiler);
+			}
+			Parser p = g.newParser(options);
+			String name = p.compile().getClass().getSimpleName();
+			for (int c = 0; c < 5; c++) {
+				measure(name, p, inputs, c == 4);
+			}
+		}
+	}
+
+	private static void measure(String name, Parser p, Source[] inputs, boolean print) throws IOException {
+		long t1 = System.nanoTime();
+		for (Source s : inputs) {
+			if (p.match(s) == -1) {
+				throw new IOException("unmatched " + s);
+			}
+		}
+		long t2 = System.nanoTime();
+		for (Source s : inputs) {
+			p.parse(s);
+		}
+		long t3 = System.nanoTime();
+		ParserSession session = p.newSession();
+		for (Source s : inputs) {
+			session.parse(s);
+		}
+		long t4 = System.nanoTime();
+		if (print) {
+			System.out.printf("%s\tmatch %.1f[ns/call]\tparse %.1f[ns/call]\tsession %.1f[ns/call]%n", name,
+					(double) (t2 - t1) / inputs.length, (double) (t3 - t2) / inputs.length,
+					(double) (t4 - t3) / inputs.length);
+		}
+	}
+}
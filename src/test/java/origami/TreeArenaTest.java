@@ -0,0 +1,81 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Symbol;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.ast.TreeArena;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.parser.StringSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class TreeArenaTest {
+
+	private void check(String file, Source s) throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/" + file);
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		Parser p = g.newParser(options);
+		Tree<?> expected = p.parse(s);
+		TreeArena arena = new TreeArena(16);
+		Tree<?> t = arena.parse(p, s);
+		assert expected.toString().equals(t.toString()) : file;
+		this.checkNode(expected, t);
+		assert arena.size() > 0;
+		arena.clear();
+		assert arena.size() == 0;
+		assert expected.toString().equals(arena.parse(p, s).toString()) : file;
+	}
+
+	private void checkNode(Tree<?> expected, Tree<?> t) {
+		assert expected.getTag() == t.getTag();
+		assert expected.getSourcePosition() == t.getSourcePosition();
+		assert expected.getLength() == t.getLength();
+		assert expected.getString().equals(t.getString());
+		assert expected.size() == t.size();
+		for (int i = 0; i < expected.size(); i++) {
+			Symbol label = expected.getLabel(i);
+			assert label == t.getLabel(i);
+			if (label != null) {
+				assert t.has(label);
+				assert t.indexOf(label) == expected.indexOf(label);
+			}
+			this.checkNode(expected.get(i), t.get(i));
+		}
+	}
+
+	public void testXml() throws Throwable {
+		byte[] b = Files.readAllBytes(new File("pom.xml").toPath());
+		this.check("xml.opeg", new StringSource("pom.xml", 1, b, false));
+	}
+
+	public void testJson() throws Throwable {
+		this.check("json.opeg", ParserSource.newStringSource("{\"a\": [1, 2, {\"b\": null}], \"c\": \"d\"}"));
+	}
+
+	public void testCsv() throws Throwable {
+		this.check("csv.opeg", ParserSource.newStringSource("a,b,\"c, d\"\n1,2,3\n"));
+	}
+
+}
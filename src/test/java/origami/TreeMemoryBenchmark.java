@@ -0,0 +1,114 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import blue.origami.nez.ast.Source;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.ast.TreeArena;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserOption;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+/**
+ * Reports the retained heap and the bytes allocated while parsing per tree
+ * node of CommonTree and TreeArena on generated inputs for the bundled
+ * grammars. The allocated bytes include the Integer node ids that TreeArena
+ * boxes above the Integer cache.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=origami.TreeMemoryBenchmark
+ * </pre>
+ */
+
+public class TreeMemoryBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		StringBuilder json = new StringBuilder("[");
+		StringBuilder xml = new StringBuilder("<root>");
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			json.append(i > 0 ? ", " : "").append("{\"id\": " + i + ", \"tags\": [\"a\", \"b\"], \"ok\": true}");
+			xml.append("<item id=\"" + i + "\"><name>r" + i + "</name></item>");
+			csv.append(i + ",Ford,\"E350, ac\"," + (i * 7) + ".00\n");
+		}
+		measure("json.opeg", json.append("]").toString());
+		measure("xml.opeg", xml.append("</root>").toString());
+		measure("csv.opeg", csv.toString());
+	}
+
+	private static void measure(String file, String text) throws IOException {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/" + file);
+		OOption options = new OOption();
+		options.set(ParserOption.ThrowingParserError, false);
+		Parser p = g.newParser(options);
+		Source s = ParserSource.newStringSource(text);
+		p.parse(s); // warm up
+
+		/* a throwaway session, so that its memo table does not retain trees */
+		long base = usedMemory();
+		long alloc = allocatedBytes();
+		Tree<?> tree = p.newSession().parse(s);
+		long commonAlloc = allocatedBytes() - alloc;
+		long common = usedMemory() - base;
+		int nodes = count(tree);
+		tree = null;
+
+		base = usedMemory();
+		alloc = allocatedBytes();
+		TreeArena arena = new TreeArena();
+		p.newSession().parse(s, 0, arena, arena);
+		long flatAlloc = allocatedBytes() - alloc;
+		long flat = usedMemory() - base;
+		System.out.printf("%s\tnodes %d (arena %d)\tCommonTree %.1f[B/node] (allocated %.1f)"
+				+ "\tTreeArena %.1f[B/node] (allocated %.1f)%n", file, nodes, arena.size(), (double) common / nodes,
+				(double) commonAlloc / nodes, (double) flat / nodes, (double) flatAlloc / nodes);
+	}
+
+	private static int count(Tree<?> t) {
+		int c = 1;
+		for (Tree<?> sub : t) {
+			c += count(sub);
+		}
+		return c;
+	}
+
+	/* bytes allocated by this thread so far, or 0 if the JVM cannot tell */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+			if (b.isThreadAllocatedMemorySupported()) {
+				return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,93 @@
+/***********************************************************************
+ * Copyright 2017 Kimio Kuramitsu and ORIGAMI project
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***********************************************************************/
+
+package origami;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import blue.origami.main.tool.BinaryTreeWriter;
+import blue.origami.main.tool.JsonLinesWriter;
+import blue.origami.main.tool.JsonWriter;
+import blue.origami.main.tool.OTreeWriter;
+import blue.origami.nez.ast.Tree;
+import blue.origami.nez.parser.Parser;
+import blue.origami.nez.parser.ParserSource;
+import blue.origami.nez.peg.Grammar;
+import blue.origami.util.OOption;
+
+public class TreeWriterTest {
+	private static final String Input = "{\"a\": [1, 2.5, true], \"b\\\"\\n\": {\"c\": \"x\\ty\"}, \"d\": null}";
+
+	private static Tree<?> sample() throws Throwable {
+		Grammar g = Grammar.loadFile("/blue/origami/grammar/json.opeg");
+		return g.newParser(new OOption()).parse(Input);
+	}
+
+	private static File write(OTreeWriter w, Tree<?>... trees) throws Throwable {
+		File f = File.createTempFile("tree", ".out");
+		f.deleteOnExit();
+		w.open(f.getPath());
+		for (Tree<?> t : trees) {
+			w.write(t);
+		}
+		w.close();
+		return f;
+	}
+
+	public void testJson() throws Throwable {
+		Tree<?> t = sample();
+		File f = write(new JsonWriter(), t);
+		String text = new String(Files.readAllBytes(f.toPath()), "UTF-8");
+		assert text.startsWith("{\"tag\":\"Object\"") : text;
+		assert text.contains("\"text\":\"b\\\\\\\"\\\\n\"") : text;
+		Parser json = Grammar.loadFile("/blue/origami/grammar/json.opeg").newParser(new OOption());
+		assert json.match(ParserSource.newStringSource(text)) == text.length() : text;
+	}
+
+	public void testJsonLines() throws Throwable {
+		Tree<?> t = sample();
+		File f = write(new JsonLinesWriter(), t, t, t);
+		List<String> lines = Files.readAllLines(f.toPath());
+		assert lines.size() == 3 : lines;
+		Parser json = Grammar.loadFile("/blue/origami/grammar/json.opeg").newParser(new OOption());
+		for (String line : lines) {
+			assert line.equals(lines.get(0));
+			assert json.match(ParserSource.newStringSource(line)) == line.length() : line;
+		}
+	}
+
+	public void testBinaryRoundTrip() throws Throwable {
+		Tree<?> t = sample();
+		Tree<?> x = Grammar.loadFile("/blue/origami/grammar/xml.opeg").newParser(new OOption())
+				.parse("<a href=\"u\"><b>text</b><c/></a>");
+		File f = write(new BinaryTreeWriter(), t, x);
+		try (InputStream in = new FileInputStream(f)) {
+			BinaryTreeWriter.Reader r = new BinaryTreeWriter.Reader(in);
+			Tree<?> t2 = r.read();
+			Tree<?> x2 = r.read();
+			assert r.read() == null;
+			assert t.toString().equals(t2.toString()) : t2;
+			assert x.toString().equals(x2.toString()) : x2;
+			assert t.get(0).getSourcePosition() == t2.get(0).getSourcePosition();
+			assert t.get(0).getLength() == t2.get(0).getLength();
+		}
+		assert f.length() < t.toString().length() + x.toString().length();
+	}
+}